@@ -7,77 +7,90 @@
 #include <android/bitmap.h>
 #include <android/log.h>
 
-#define WHITE 0xffffff
-#define BLACK 0x000000
+#include "drawable_kernels.h"
+
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 
-enum GCFunction {GCF_CLEAR, GCF_AND, GCF_AND_REVERSE, GCF_COPY, GCF_AND_INVERTED, GCF_NO_OP, GCF_XOR, GCF_OR, GCF_NOR, GCF_EQUIV, GCF_INVERT, GCF_OR_REVERSE, GCF_COPY_INVERTED, GCF_OR_INVERTED, GCF_NAND, GCF_SET};
+enum PolyShape {POLY_LINE, POLY_FILL_RECTANGLE};
+
+struct Bounds {
+    int x0;
+    int y0;
+    int x1;
+    int y1;
+};
 
 static int packColor(int8_t r, int8_t g, int8_t b) {
     return ((r & 0xff00) << 8) | (g & 0xff00) | (b >> 8);
 }
 
-static void unpackColor(int color, uint8_t *rgba) {
-    rgba[2] = (color >> 16) & 255;
-    rgba[1] = (color >> 8) & 255;
-    rgba[0] = color & 255;
-    rgba[3] = 255;
-}
-
-static int8_t getBit(uint8_t *line, int x) {
-    uint8_t mask = (1 << (x & 7));
-    line += (x >> 3);
-    return (*line & mask) ? 1 : 0;
+static uint32_t unpackColor(int color) {
+    return (color & 0xffffff) | 0xff000000;
 }
 
 static int getBitmapBytePad(int width) {
     return ((width + 32 - 1) >> 5) << 2;
 }
 
-static int setPixelOp(int srcColor, int dstColor, enum GCFunction gcFunction) {
-    switch (gcFunction) {
-        case GCF_CLEAR:
-            return BLACK;
-        case GCF_AND:
-            return srcColor & dstColor;
-        case GCF_AND_REVERSE:
-            return srcColor & ~dstColor;
-        case GCF_COPY:
-            return srcColor;
-        case GCF_AND_INVERTED:
-            return ~srcColor & dstColor;
-        case GCF_XOR:
-            return srcColor ^ dstColor;
-        case GCF_OR:
-            return srcColor | dstColor;
-        case GCF_NOR:
-            return ~srcColor & ~dstColor;
-        case GCF_EQUIV:
-            return ~srcColor ^ dstColor;
-        case GCF_INVERT:
-            return ~dstColor;
-        case GCF_OR_REVERSE:
-            return srcColor | ~dstColor;
-        case GCF_COPY_INVERTED:
-            return ~srcColor;
-        case GCF_OR_INVERTED:
-            return ~srcColor | dstColor;
-        case GCF_NAND:
-            return ~srcColor | ~dstColor;
-        case GCF_SET:
-            return WHITE;
-        case GCF_NO_OP:
-        default:
-            return dstColor;
+static int16_t readShort(const uint8_t *addr, bool swapBytes) {
+    uint16_t value;
+    memcpy(&value, addr, 2);
+    return swapBytes ? (int16_t)((value << 8) | (value >> 8)) : (int16_t)value;
+}
+
+static void addBounds(struct Bounds *bounds, int x0, int y0, int x1, int y1) {
+    if (x0 < bounds->x0) bounds->x0 = x0;
+    if (y0 < bounds->y0) bounds->y0 = y0;
+    if (x1 > bounds->x1) bounds->x1 = x1;
+    if (y1 > bounds->y1) bounds->y1 = y1;
+}
+
+static void plotLine(uint32_t *dataAddr, int stride, int x0, int y0, int x1, int y1, uint32_t pixel, int lineWidth) {
+    int dx =  abs(x1 - x0);
+    int dy = -abs(y1 - y0);
+    int8_t sx = x0 < x1 ? 1 : -1;
+    int8_t sy = y0 < y1 ? 1 : -1;
+    int e1 = dx + dy, e2;
+
+    while (true) {
+        for (int16_t i = 0; i < lineWidth; i++) {
+            fillSpan(dataAddr + x0 + (i + y0) * stride, pixel, lineWidth);
+        }
+        if (x0 == x1 && y0 == y1) break;
+
+        e2 = e1 * 2;
+        if (e2 >= dy) {
+            e1 += dy;
+            x0 += sx;
+        }
+        if (e2 <= dx) {
+            e1 += dx;
+            y0 += sy;
+        }
     }
 }
 
+static int clampInt(int value, int min, int max) {
+    return value < min ? min : (value > max ? max : value);
+}
+
+static void drawClampedLine(uint32_t *dataAddr, int width, int height, int stride, int x0, int y0, int x1, int y1, uint32_t pixel, int lineWidth, struct Bounds *bounds) {
+    if (lineWidth <= 0 || lineWidth > width || lineWidth > height) return;
+    x0 = clampInt(x0, 0, width - lineWidth);
+    y0 = clampInt(y0, 0, height - lineWidth);
+    x1 = clampInt(x1, 0, width - lineWidth);
+    y1 = clampInt(y1, 0, height - lineWidth);
+
+    plotLine(dataAddr, stride, x0, y0, x1, y1, pixel, lineWidth);
+    addBounds(bounds, x0 < x1 ? x0 : x1, y0 < y1 ? y0 : y1, (x0 > x1 ? x0 : x1) + lineWidth, (y0 > y1 ? y0 : y1) + lineWidth);
+}
+
 JNIEXPORT void JNICALL
 Java_com_winlator_cmod_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
                                               jshort width, jshort height, jobject srcData,
                                               jobject dstData) {
     uint8_t *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
-    int *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
+    uint32_t *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
 
     if (!srcDataAddr || !dstDataAddr) {
         printf("Error: NULL buffer address in drawBitmap\n");
@@ -85,10 +98,9 @@ Java_com_winlator_cmod_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
     }
 
     int stride = getBitmapBytePad(width);
-    for (int16_t y = 0, x; y < height; y++) {
-        for (x = 0; x < width; x++) {
-            *dstDataAddr++ = getBit(srcDataAddr, x) ? WHITE : BLACK;
-        }
+    for (int16_t y = 0; y < height; y++) {
+        expandBitmapRow(dstDataAddr, srcDataAddr, width);
+        dstDataAddr += width;
         srcDataAddr += stride;
     }
 }
@@ -112,11 +124,19 @@ Java_com_winlator_cmod_xserver_Drawable_copyArea(JNIEnv *env, jclass obj, jshort
 
     if (srcX != 0 || srcY != 0 || dstX != 0 || dstY != 0 || srcLength != dstLength) {
         int copyAmount = width * 4;
-        for (int16_t y = 0; y < height; y++) {
-            memcpy(dstDataAddr + (dstX + (y + dstY) * dstStride) * 4,
-                   srcDataAddr + (srcX + (y + srcY) * srcStride) * 4, copyAmount);
+        if (srcDataAddr == dstDataAddr && dstY > srcY) {
+            for (int16_t y = height - 1; y >= 0; y--) {
+                memmove(dstDataAddr + (dstX + (y + dstY) * dstStride) * 4,
+                        srcDataAddr + (srcX + (y + srcY) * srcStride) * 4, copyAmount);
+            }
+        }
+        else {
+            for (int16_t y = 0; y < height; y++) {
+                memmove(dstDataAddr + (dstX + (y + dstY) * dstStride) * 4,
+                        srcDataAddr + (srcX + (y + srcY) * srcStride) * 4, copyAmount);
+            }
         }
-    } else {
+    } else if (srcDataAddr != dstDataAddr) {
         memcpy(dstDataAddr, srcDataAddr, dstLength);
     }
 }
@@ -135,102 +155,112 @@ Java_com_winlator_cmod_xserver_Drawable_copyAreaOp(JNIEnv *env, jclass obj, jsho
         return;
     }
 
-    for (int16_t y = 0; y < height; y++) {
-        for (int16_t x = 0; x < width; x++) {
-            int i = (x + srcX + (y + srcY) * srcStride) * 4;
-            int j = (x + dstX + (y + dstY) * dstStride) * 4;
-            int srcColor = (srcDataAddr[i] << 16) | (srcDataAddr[i+1] << 8) | srcDataAddr[i+2];
-            int dstColor = (dstDataAddr[j] << 16) | (dstDataAddr[j+1] << 8) | dstDataAddr[j+2];
-
-            dstColor = setPixelOp(srcColor, dstColor, gcFunction);
+    RasterOpRow rasterOp = getRasterOpRow(gcFunction);
+    uint32_t *row = NULL;
+    if (srcDataAddr == dstDataAddr) {
+        row = malloc(width * 4);
+        if (!row) {
+            printf("Error: Failed to allocate memory for row\n");
+            return;
+        }
+    }
 
-            dstDataAddr[j] = (dstColor >> 16) & 0xff;
-            dstDataAddr[j+1] = (dstColor >> 8) & 0xff;
-            dstDataAddr[j+2] = dstColor & 0xff;
+    bool bottomUp = srcDataAddr == dstDataAddr && dstY > srcY;
+    for (int16_t i = 0; i < height; i++) {
+        int16_t y = bottomUp ? height - 1 - i : i;
+        uint32_t *src = (uint32_t*)srcDataAddr + srcX + (y + srcY) * srcStride;
+        uint32_t *dst = (uint32_t*)dstDataAddr + dstX + (y + dstY) * dstStride;
+        if (row) {
+            memcpy(row, src, width * 4);
+            src = row;
         }
+        rasterOp(dst, src, width);
     }
+
+    free(row);
 }
 
 JNIEXPORT void JNICALL
 Java_com_winlator_cmod_xserver_Drawable_fillRect(JNIEnv *env, jclass obj, jshort x, jshort y,
                                             jshort width, jshort height, jint color, jshort stride,
                                             jobject data) {
-    uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    uint32_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
 
     if (!dataAddr) {
         printf("Error: NULL buffer address in fillRect\n");
         return;
     }
 
-    uint8_t rgba[4];
-    unpackColor(color, rgba);
-
-    int rowSize = width * 4;
-    uint8_t *row = malloc(rowSize);
-    if (!row) {
-        printf("Error: Failed to allocate memory for row\n");
-        return;
-    }
-
-    for (int i = 0; i < rowSize; i += 4) {
-        memcpy(row + i, rgba, 4);
-    }
+    uint32_t pixel = unpackColor(color);
     for (int16_t i = 0; i < height; i++) {
-        memcpy(dataAddr + (x + (i + y) * stride) * 4, row, rowSize);
+        fillSpan(dataAddr + x + (i + y) * stride, pixel, width);
     }
-
-    free(row);
 }
 
 JNIEXPORT void JNICALL
 Java_com_winlator_cmod_xserver_Drawable_drawLine(JNIEnv *env, jclass obj, jshort x0, jshort y0,
                                             jshort x1, jshort y1, jint color, jshort lineWidth,
                                             jshort stride, jobject data) {
-    uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    uint32_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
 
     if (!dataAddr) {
         printf("Error: NULL buffer address in drawLine\n");
         return;
     }
 
-    int dx =  abs(x1 - x0);
-    int dy = -abs(y1 - y0);
-    int8_t sx = x0 < x1 ? 1 : -1;
-    int8_t sy = y0 < y1 ? 1 : -1;
-    int e1 = dx + dy, e2;
-
-    uint8_t rgba[4];
-    unpackColor(color, rgba);
-
-    int rowSize = lineWidth * 4;
-    uint8_t *row = malloc(rowSize);
-    if (!row) {
-        printf("Error: Failed to allocate memory for row\n");
-        return;
-    }
+    plotLine(dataAddr, stride, x0, y0, x1, y1, unpackColor(color), lineWidth);
+}
 
-    for (int i = 0; i < rowSize; i += 4) {
-        memcpy(row + i, rgba, 4);
+JNIEXPORT jlong JNICALL
+Java_com_winlator_cmod_xserver_Drawable_drawPoly(JNIEnv *env, jclass obj, jint shape,
+                                            jobject items, jint count, jboolean swapBytes,
+                                            jint color, jshort lineWidth, jshort width,
+                                            jshort height, jshort stride, jobject data) {
+    uint8_t *itemsAddr = (*env)->GetDirectBufferAddress(env, items);
+    uint32_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+
+    if (!itemsAddr || !dataAddr) {
+        printf("Error: NULL buffer address in drawPoly\n");
+        return 0;
     }
 
-    while (true) {
-        for (int16_t i = 0; i < lineWidth; i++) {
-            memcpy(dataAddr + (x0 + (i + y0) * stride) * 4, row, rowSize);
-        }
-        if (x0 == x1 && y0 == y1) break;
-
-        e2 = e1 * 2;
-        if (e2 >= dy) {
-            e1 += dy;
-            x0 += sx;
-        }
-        if (e2 <= dx) {
-            e1 += dx;
-            y0 += sy;
+    struct Bounds bounds = {width, height, 0, 0};
+    uint32_t pixel = unpackColor(color);
+    int lastX = 0, lastY = 0;
+
+    for (int i = 0; i < count; i++) {
+        switch (shape) {
+            case POLY_LINE: {
+                int x = readShort(itemsAddr, swapBytes);
+                int y = readShort(itemsAddr + 2, swapBytes);
+                itemsAddr += 4;
+                if (i > 0) drawClampedLine(dataAddr, width, height, stride, lastX, lastY, x, y, pixel, lineWidth, &bounds);
+                lastX = x;
+                lastY = y;
+                break;
+            }
+            case POLY_FILL_RECTANGLE: {
+                int x0 = readShort(itemsAddr, swapBytes);
+                int y0 = readShort(itemsAddr + 2, swapBytes);
+                int x1 = x0 + (uint16_t)readShort(itemsAddr + 4, swapBytes);
+                int y1 = y0 + (uint16_t)readShort(itemsAddr + 6, swapBytes);
+                itemsAddr += 8;
+
+                if (x0 < 0) x0 = 0;
+                if (y0 < 0) y0 = 0;
+                if (x1 > width) x1 = width;
+                if (y1 > height) y1 = height;
+                if (x0 >= x1 || y0 >= y1) break;
+
+                for (int j = y0; j < y1; j++) fillSpan(dataAddr + x0 + j * stride, pixel, x1 - x0);
+                addBounds(&bounds, x0, y0, x1, y1);
+                break;
+            }
         }
     }
 
-    free(row);
+    if (bounds.x0 >= bounds.x1 || bounds.y0 >= bounds.y1) return 0;
+    return (jlong)bounds.x0 | ((jlong)bounds.y0 << 16) | ((jlong)bounds.x1 << 32) | ((jlong)bounds.y1 << 48);
 }
 
 JNIEXPORT void JNICALL
@@ -240,9 +270,9 @@ Java_com_winlator_cmod_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclas
                                                          jbyte backGreen, jbyte backBlue,
                                                          jobject srcData, jobject maskData,
                                                          jobject dstData) {
-    int *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
-    int *maskDataAddr = (*env)->GetDirectBufferAddress(env, maskData);
-    int *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
+    uint32_t *srcDataAddr = (*env)->GetDirectBufferAddress(env, srcData);
+    uint32_t *maskDataAddr = (*env)->GetDirectBufferAddress(env, maskData);
+    uint32_t *dstDataAddr = (*env)->GetDirectBufferAddress(env, dstData);
 
     if (!srcDataAddr || !maskDataAddr || !dstDataAddr) {
         printf("Error: NULL buffer address in drawAlphaMaskedBitmap\n");
@@ -253,9 +283,7 @@ Java_com_winlator_cmod_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclas
     int backColor = packColor(backRed, backGreen, backBlue);
 
     jlong dstLength = (*env)->GetDirectBufferCapacity(env, dstData) / 4;
-    for (int i = 0; i < dstLength; i++) {
-        dstDataAddr[i] = maskDataAddr[i] == WHITE ? (srcDataAddr[i] == WHITE ? foreColor : backColor) | 0xff000000 : 0x00000000;
-    }
+    maskedBlit(dstDataAddr, srcDataAddr, maskDataAddr, foreColor, backColor, dstLength);
 }
 
 JNIEXPORT void JNICALL
@@ -280,9 +308,7 @@ Java_com_winlator_cmod_xserver_Drawable_fromBitmap(JNIEnv *env, jclass obj, jobj
         return;
     }
 
-    for (int i = 0, size = info.width * info.height * 4; i < size; i++) {
-        memcpy(dataAddr + i, pixels + i, 4);
-    }
+    memcpy(dataAddr, pixels, info.width * info.height * 4);
 
     AndroidBitmap_unlockPixels(env, bitmap);
 }
@@ -0,0 +1,170 @@
+#include <string.h>
+
+#include "drawable_kernels.h"
+
+/* Pixel kernels shared by drawable.c, every loop works on whole rows so the GC
+ * function and format are resolved once per call. Define DRAWABLE_KERNELS_SCALAR
+ * to build the portable C path only. */
+
+#define RGB_MASK 0x00ffffffu
+#define ALPHA_MASK 0xff000000u
+
+#if defined(__GNUC__) && !defined(DRAWABLE_KERNELS_SCALAR)
+#define USE_VECTOR_KERNELS 1
+
+typedef uint32_t v4u32 __attribute__((vector_size(16)));
+
+static inline v4u32 load4(const uint32_t *src) {
+    v4u32 value;
+    memcpy(&value, src, sizeof(value));
+    return value;
+}
+
+static inline void store4(uint32_t *dst, v4u32 value) {
+    memcpy(dst, &value, sizeof(value));
+}
+
+static inline v4u32 splat4(uint32_t value) {
+    return (v4u32){value, value, value, value};
+}
+#else
+#define USE_VECTOR_KERNELS 0
+#endif
+
+#if USE_VECTOR_KERNELS
+#define DEFINE_RASTER_OP(name, expr) \
+static void rasterOp_##name(uint32_t *dst, const uint32_t *src, int width) { \
+    int x = 0; \
+    const v4u32 rgbMask = splat4(RGB_MASK); \
+    for (; x + 4 <= width; x += 4) { \
+        v4u32 s = load4(src + x), d = load4(dst + x); \
+        (void)s; \
+        store4(dst + x, ((expr) & rgbMask) | (d & ~rgbMask)); \
+    } \
+    for (; x < width; x++) { \
+        uint32_t s = src[x], d = dst[x]; \
+        (void)s; \
+        dst[x] = ((expr) & RGB_MASK) | (d & ALPHA_MASK); \
+    } \
+}
+#else
+#define DEFINE_RASTER_OP(name, expr) \
+static void rasterOp_##name(uint32_t *dst, const uint32_t *src, int width) { \
+    for (int x = 0; x < width; x++) { \
+        uint32_t s = src[x], d = dst[x]; \
+        (void)s; \
+        dst[x] = ((expr) & RGB_MASK) | (d & ALPHA_MASK); \
+    } \
+}
+#endif
+
+DEFINE_RASTER_OP(clear, d & 0)
+DEFINE_RASTER_OP(and, s & d)
+DEFINE_RASTER_OP(andReverse, s & ~d)
+DEFINE_RASTER_OP(copy, s)
+DEFINE_RASTER_OP(andInverted, ~s & d)
+DEFINE_RASTER_OP(xor, s ^ d)
+DEFINE_RASTER_OP(or, s | d)
+DEFINE_RASTER_OP(nor, ~s & ~d)
+DEFINE_RASTER_OP(equiv, ~s ^ d)
+DEFINE_RASTER_OP(invert, ~d)
+DEFINE_RASTER_OP(orReverse, s | ~d)
+DEFINE_RASTER_OP(copyInverted, ~s)
+DEFINE_RASTER_OP(orInverted, ~s | d)
+DEFINE_RASTER_OP(nand, ~s | ~d)
+DEFINE_RASTER_OP(set, d | ~d)
+
+static void rasterOp_noOp(uint32_t *dst, const uint32_t *src, int width) {
+    (void)dst;
+    (void)src;
+    (void)width;
+}
+
+RasterOpRow getRasterOpRow(enum GCFunction gcFunction) {
+    switch (gcFunction) {
+        case GCF_CLEAR:
+            return rasterOp_clear;
+        case GCF_AND:
+            return rasterOp_and;
+        case GCF_AND_REVERSE:
+            return rasterOp_andReverse;
+        case GCF_COPY:
+            return rasterOp_copy;
+        case GCF_AND_INVERTED:
+            return rasterOp_andInverted;
+        case GCF_XOR:
+            return rasterOp_xor;
+        case GCF_OR:
+            return rasterOp_or;
+        case GCF_NOR:
+            return rasterOp_nor;
+        case GCF_EQUIV:
+            return rasterOp_equiv;
+        case GCF_INVERT:
+            return rasterOp_invert;
+        case GCF_OR_REVERSE:
+            return rasterOp_orReverse;
+        case GCF_COPY_INVERTED:
+            return rasterOp_copyInverted;
+        case GCF_OR_INVERTED:
+            return rasterOp_orInverted;
+        case GCF_NAND:
+            return rasterOp_nand;
+        case GCF_SET:
+            return rasterOp_set;
+        case GCF_NO_OP:
+        default:
+            return rasterOp_noOp;
+    }
+}
+
+void fillSpan(uint32_t *dst, uint32_t color, int width) {
+    int x = 0;
+#if USE_VECTOR_KERNELS
+    const v4u32 color4 = splat4(color);
+    for (; x + 4 <= width; x += 4) store4(dst + x, color4);
+#endif
+    for (; x < width; x++) dst[x] = color;
+}
+
+void expandBitmapRow(uint32_t *dst, const uint8_t *src, int width) {
+    int x = 0;
+#if USE_VECTOR_KERNELS
+    const v4u32 lowBits = {1, 2, 4, 8};
+    const v4u32 highBits = {16, 32, 64, 128};
+    const v4u32 white4 = splat4(WHITE);
+    for (; x + 8 <= width; x += 8) {
+        v4u32 bits = splat4(*src++);
+        store4(dst + x, (v4u32)((bits & lowBits) != 0) & white4);
+        store4(dst + x + 4, (v4u32)((bits & highBits) != 0) & white4);
+    }
+#else
+    for (; x + 8 <= width; x += 8) {
+        uint8_t bits = *src++;
+        for (int i = 0; i < 8; i++) dst[x+i] = -(uint32_t)((bits >> i) & 1) & WHITE;
+    }
+#endif
+    if (x < width) {
+        uint8_t bits = *src;
+        for (int i = 0; x < width; x++, i++) dst[x] = -(uint32_t)((bits >> i) & 1) & WHITE;
+    }
+}
+
+void maskedBlit(uint32_t *dst, const uint32_t *src, const uint32_t *mask, uint32_t foreColor, uint32_t backColor, int length) {
+    int i = 0;
+    foreColor |= ALPHA_MASK;
+    backColor |= ALPHA_MASK;
+#if USE_VECTOR_KERNELS
+    const v4u32 white4 = splat4(WHITE);
+    const v4u32 fore4 = splat4(foreColor);
+    const v4u32 back4 = splat4(backColor);
+    for (; i + 4 <= length; i += 4) {
+        v4u32 visible = (v4u32)(load4(mask + i) == white4);
+        v4u32 fore = (v4u32)(load4(src + i) == white4);
+        store4(dst + i, visible & ((fore & fore4) | (~fore & back4)));
+    }
+#endif
+    for (; i < length; i++) {
+        dst[i] = mask[i] == WHITE ? (src[i] == WHITE ? foreColor : backColor) : 0x00000000;
+    }
+}
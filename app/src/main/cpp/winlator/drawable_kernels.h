@@ -0,0 +1,16 @@
+#pragma once
+
+#include <stdint.h>
+
+#define WHITE 0xffffff
+#define BLACK 0x000000
+
+enum GCFunction {GCF_CLEAR, GCF_AND, GCF_AND_REVERSE, GCF_COPY, GCF_AND_INVERTED, GCF_NO_OP, GCF_XOR, GCF_OR, GCF_NOR, GCF_EQUIV, GCF_INVERT, GCF_OR_REVERSE, GCF_COPY_INVERTED, GCF_OR_INVERTED, GCF_NAND, GCF_SET};
+
+typedef void (*RasterOpRow)(uint32_t *dst, const uint32_t *src, int width);
+
+RasterOpRow getRasterOpRow(enum GCFunction gcFunction);
+
+void fillSpan(uint32_t *dst, uint32_t color, int width);
+void expandBitmapRow(uint32_t *dst, const uint8_t *src, int width);
+void maskedBlit(uint32_t *dst, const uint32_t *src, const uint32_t *mask, uint32_t foreColor, uint32_t backColor, int length);
@@ -1,3 +1,4 @@
+#define _GNU_SOURCE
 #include <jni.h>
 #include <sys/epoll.h>
 #include <sys/poll.h>
@@ -6,16 +7,19 @@
 #include <sys/eventfd.h>
 #include <sys/un.h>
 #include <unistd.h>
+#include <fcntl.h>
+#include <stdint.h>
+#include <errno.h>
 #include <string.h>
-#include <malloc.h>
+#include <stdlib.h>
 #include <jni.h>
 #include <android/log.h>
 
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
-#define MAX_EVENTS 10
+#define MAX_BACKLOG 64
 #define MAX_FDS 32
-
-struct epoll_event events[MAX_EVENTS];
+#define MAX_IOVECS 64
+#define WOULD_BLOCK -2
 
 JNIEXPORT jint JNICALL
 Java_com_winlator_cmod_xconnector_XConnectorEpoll_createAFUnixSocket(JNIEnv *env, jobject obj,
@@ -36,7 +40,8 @@ Java_com_winlator_cmod_xconnector_XConnectorEpoll_createAFUnixSocket(JNIEnv *env
 
     unlink(serverAddr.sun_path);
     if (bind(fd, (struct sockaddr*) &serverAddr, addrLength) < 0) goto error;
-    if (listen(fd, MAX_EVENTS) < 0) goto error;
+    if (listen(fd, MAX_BACKLOG) < 0) goto error;
+    if (fcntl(fd, F_SETFL, fcntl(fd, F_GETFL) | O_NONBLOCK) < 0) goto error;
 
     return fd;
     error:
@@ -46,7 +51,7 @@ Java_com_winlator_cmod_xconnector_XConnectorEpoll_createAFUnixSocket(JNIEnv *env
 
 JNIEXPORT jint JNICALL
 Java_com_winlator_cmod_xconnector_XConnectorEpoll_createEpollFd(JNIEnv *env, jobject obj) {
-    return epoll_create(MAX_EVENTS);
+    return epoll_create1(EPOLL_CLOEXEC);
 }
 
 JNIEXPORT void JNICALL
@@ -54,37 +59,70 @@ Java_com_winlator_cmod_xconnector_XConnectorEpoll_closeFd(JNIEnv *env, jobject o
     close(fd);
 }
 
+JNIEXPORT jlong JNICALL
+Java_com_winlator_cmod_xconnector_XConnectorEpoll_allocEpollEvents(JNIEnv *env, jobject obj,
+                                                              jint maxEvents) {
+    return (jlong)calloc(maxEvents, sizeof(struct epoll_event));
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_cmod_xconnector_XConnectorEpoll_freeEpollEvents(JNIEnv *env, jobject obj,
+                                                             jlong epollEvents) {
+    free((struct epoll_event*)epollEvents);
+}
+
 JNIEXPORT jboolean JNICALL
 Java_com_winlator_cmod_xconnector_XConnectorEpoll_doEpollIndefinitely(JNIEnv *env, jobject obj,
                                                                  jint epollFd, jint serverFd,
-                                                                 jboolean addClientToEpoll) {
+                                                                 jint wakeupFd, jlong epollEvents,
+                                                                 jint maxEvents,
+                                                                 jboolean addClientToEpoll,
+                                                                 jboolean edgeTriggered,
+                                                                 jint timeout) {
     jclass cls = (*env)->GetObjectClass(env, obj);
     jmethodID handleNewConnection = (*env)->GetMethodID(env, cls, "handleNewConnection", "(I)V");
     jmethodID handleExistingConnection = (*env)->GetMethodID(env, cls, "handleExistingConnection", "(I)V");
+    jmethodID handleWritableConnection = (*env)->GetMethodID(env, cls, "handleWritableConnection", "(I)V");
+    jmethodID handleWakeup = (*env)->GetMethodID(env, cls, "handleWakeup", "()V");
+    struct epoll_event *events = (struct epoll_event*)epollEvents;
+
+    int numFds = epoll_wait(epollFd, events, maxEvents, timeout);
+    if (numFds < 0) return errno == EINTR;
 
-    int numFds = epoll_wait(epollFd, events, MAX_EVENTS, -1);
     for (int i = 0; i < numFds; i++) {
-        if (events[i].data.fd == serverFd) {
-            int clientFd = accept(serverFd, NULL, NULL);
-            if (clientFd >= 0) {
+        int fd = events[i].data.fd;
+        if (fd == serverFd) {
+            int clientFd;
+            while ((clientFd = accept4(serverFd, NULL, NULL, edgeTriggered ? SOCK_NONBLOCK : 0)) >= 0) {
                 if (addClientToEpoll) {
                     struct epoll_event event;
                     event.data.fd = clientFd;
-                    event.events = EPOLLIN;
+                    event.events = edgeTriggered ? EPOLLIN | EPOLLOUT | EPOLLET : EPOLLIN;
 
                     if (epoll_ctl(epollFd, EPOLL_CTL_ADD, clientFd, &event) >= 0) {
                         (*env)->CallVoidMethod(env, obj, handleNewConnection, clientFd);
                     }
+                    else close(clientFd);
                 }
                 else (*env)->CallVoidMethod(env, obj, handleNewConnection, clientFd);
             }
         }
-        else if (events[i].events & EPOLLIN) {
-            (*env)->CallVoidMethod(env, obj, handleExistingConnection, events[i].data.fd);
+        else if (fd == wakeupFd) {
+            uint64_t value;
+            while (read(wakeupFd, &value, sizeof(value)) > 0);
+            (*env)->CallVoidMethod(env, obj, handleWakeup);
+        }
+        else {
+            if (events[i].events & (EPOLLIN | EPOLLHUP | EPOLLERR)) {
+                (*env)->CallVoidMethod(env, obj, handleExistingConnection, fd);
+            }
+            if (events[i].events & EPOLLOUT) {
+                (*env)->CallVoidMethod(env, obj, handleWritableConnection, fd);
+            }
         }
     }
 
-    return numFds >= 0;
+    return JNI_TRUE;
 }
 
 JNIEXPORT jboolean JNICALL
@@ -98,6 +136,17 @@ Java_com_winlator_cmod_xconnector_XConnectorEpoll_addFdToEpoll(JNIEnv *env, jobj
     return JNI_TRUE;
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_cmod_xconnector_XConnectorEpoll_setFdWriteInterest(JNIEnv *env, jobject obj,
+                                                                jint epollFd, jint fd,
+                                                                jboolean enabled) {
+    struct epoll_event event;
+    event.data.fd = fd;
+    event.events = enabled ? EPOLLIN | EPOLLOUT : EPOLLIN;
+    if (epoll_ctl(epollFd, EPOLL_CTL_MOD, fd, &event) < 0) return JNI_FALSE;
+    return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL
 Java_com_winlator_cmod_xconnector_XConnectorEpoll_removeFdFromEpoll(JNIEnv *env, jobject obj,
                                                                jint epollFd, jint fd) {
@@ -108,14 +157,64 @@ JNIEXPORT jint JNICALL
 Java_com_winlator_cmod_xconnector_ClientSocket_read(JNIEnv *env, jobject obj, jint fd, jobject data,
                                                jint offset, jint length) {
     char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
-    return read(fd, dataAddr + offset, length);
+    int size = read(fd, dataAddr + offset, length);
+    if (size < 0 && (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR)) return WOULD_BLOCK;
+    return size;
 }
 
 JNIEXPORT jint JNICALL
 Java_com_winlator_cmod_xconnector_ClientSocket_write(JNIEnv *env, jobject obj, jint fd, jobject data,
-                                                jint length) {
+                                                jint offset, jint length) {
     char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
-    return write(fd, dataAddr, length);
+    return write(fd, dataAddr + offset, length);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_cmod_xconnector_ClientSocket_send(JNIEnv *env, jobject obj, jint fd, jobject data,
+                                               jint offset, jint length) {
+    char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    int size = send(fd, dataAddr + offset, length, MSG_DONTWAIT | MSG_NOSIGNAL);
+    if (size < 0 && (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR)) return WOULD_BLOCK;
+    return size;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_cmod_xconnector_ClientSocket_sendv(JNIEnv *env, jobject obj, jint fd, jobjectArray data,
+                                                jintArray offsets, jintArray lengths, jint count) {
+    if (count > MAX_IOVECS) count = MAX_IOVECS;
+
+    struct iovec iov[MAX_IOVECS];
+    jint offsetsArr[MAX_IOVECS];
+    jint lengthsArr[MAX_IOVECS];
+    (*env)->GetIntArrayRegion(env, offsets, 0, count, offsetsArr);
+    (*env)->GetIntArrayRegion(env, lengths, 0, count, lengthsArr);
+
+    for (int i = 0; i < count; i++) {
+        jobject buffer = (*env)->GetObjectArrayElement(env, data, i);
+        char *dataAddr = (*env)->GetDirectBufferAddress(env, buffer);
+        iov[i].iov_base = dataAddr + offsetsArr[i];
+        iov[i].iov_len = lengthsArr[i];
+        (*env)->DeleteLocalRef(env, buffer);
+    }
+
+    struct msghdr msg = {
+        .msg_name = NULL,
+        .msg_namelen = 0,
+        .msg_iov = iov,
+        .msg_iovlen = count,
+        .msg_control = NULL,
+        .msg_controllen = 0,
+        .msg_flags = 0
+    };
+
+    int size = sendmsg(fd, &msg, MSG_DONTWAIT | MSG_NOSIGNAL);
+    if (size < 0 && (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR)) return WOULD_BLOCK;
+    return size;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_cmod_xconnector_ClientSocket_duplicateFd(JNIEnv *env, jclass obj, jint fd) {
+    return dup(fd);
 }
 
 JNIEXPORT jint JNICALL
@@ -144,6 +243,7 @@ Java_com_winlator_cmod_xconnector_ClientSocket_recvAncillaryMsg(JNIEnv *env, job
     };
 
     int size = recvmsg(clientFd, &msg, 0);
+    if (size < 0 && (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR)) return WOULD_BLOCK;
 
     if (size >= 0) {
         struct cmsghdr *cmsg;
@@ -166,10 +266,11 @@ Java_com_winlator_cmod_xconnector_ClientSocket_recvAncillaryMsg(JNIEnv *env, job
 
 JNIEXPORT jint JNICALL
 Java_com_winlator_cmod_xconnector_ClientSocket_sendAncillaryMsg(JNIEnv *env, jobject obj, jint clientFd,
-                                                           jobject data, jint length, jint ancillaryFd) {
+                                                           jobject data, jint offset, jint length,
+                                                           jint ancillaryFd) {
     char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
 
-    struct iovec iovmsg = {.iov_base = dataAddr, .iov_len = length};
+    struct iovec iovmsg = {.iov_base = dataAddr + offset, .iov_len = length};
     struct {
         struct cmsghdr align;
         int fds[1];
@@ -191,14 +292,18 @@ Java_com_winlator_cmod_xconnector_ClientSocket_sendAncillaryMsg(JNIEnv *env, job
     cmsg->cmsg_len = msg.msg_controllen;
     ((int*)CMSG_DATA(cmsg))[0] = ancillaryFd;
 
-    return sendmsg(clientFd, &msg, 0);
+    int size = sendmsg(clientFd, &msg, MSG_DONTWAIT | MSG_NOSIGNAL);
+    if (size < 0 && (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR)) return WOULD_BLOCK;
+    return size;
 }
 
 JNIEXPORT jboolean JNICALL
-Java_com_winlator_cmod_xconnector_XConnectorEpoll_waitForSocketRead(JNIEnv *env, jobject obj, jint clientFd, jint shutdownFd) {
+Java_com_winlator_cmod_xconnector_XConnectorEpoll_waitForSocketEvents(JNIEnv *env, jobject obj,
+                                                                 jint clientFd, jint shutdownFd,
+                                                                 jboolean waitForWrite) {
     struct pollfd pfds[2];
     pfds[0].fd = clientFd;
-    pfds[0].events = POLLIN;
+    pfds[0].events = waitForWrite ? POLLIN | POLLOUT : POLLIN;
 
     pfds[1].fd = shutdownFd;
     pfds[1].events = POLLIN;
@@ -206,11 +311,16 @@ Java_com_winlator_cmod_xconnector_XConnectorEpoll_waitForSocketRead(JNIEnv *env,
     int res = poll(pfds, 2, -1);
     if (res < 0 || (pfds[1].revents & POLLIN)) return JNI_FALSE;
 
+    jclass cls = (*env)->GetObjectClass(env, obj);
     if (pfds[0].revents & POLLIN) {
-        jclass cls = (*env)->GetObjectClass(env, obj);
         jmethodID handleExistingConnection = (*env)->GetMethodID(env, cls, "handleExistingConnection", "(I)V");
         (*env)->CallVoidMethod(env, obj, handleExistingConnection, clientFd);
     }
+
+    if (pfds[0].revents & POLLOUT) {
+        jmethodID handleWritableConnection = (*env)->GetMethodID(env, cls, "handleWritableConnection", "(I)V");
+        (*env)->CallVoidMethod(env, obj, handleWritableConnection, clientFd);
+    }
     return JNI_TRUE;
 }
 
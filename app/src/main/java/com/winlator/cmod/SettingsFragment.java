@@ -263,6 +263,9 @@ public class SettingsFragment extends Fragment {
             cbUseXR.setVisibility(View.GONE);
         }
 
+        final CheckBox cbEnableParallelDispatch = view.findViewById(R.id.CBEnableParallelDispatch);
+        cbEnableParallelDispatch.setChecked(preferences.getBoolean("enable_parallel_dispatch", false));
+
         final CheckBox cbEnableWineDebug = view.findViewById(R.id.CBEnableWineDebug);
         cbEnableWineDebug.setChecked(preferences.getBoolean("enable_wine_debug", false));
 
@@ -272,6 +275,12 @@ public class SettingsFragment extends Fragment {
         final CheckBox cbEnableBox64Logs = view.findViewById(R.id.CBEnableBox64Logs);
         cbEnableBox64Logs.setChecked(preferences.getBoolean("enable_box64_logs", false));
 
+        final CheckBox cbEnableXServerCapture = view.findViewById(R.id.CBEnableXServerCapture);
+        cbEnableXServerCapture.setChecked(preferences.getBoolean("enable_xserver_capture", false));
+
+        final CheckBox cbEnableXServerStatistics = view.findViewById(R.id.CBEnableXServerStatistics);
+        cbEnableXServerStatistics.setChecked(preferences.getBoolean("enable_xserver_statistics", false));
+
         final TextView tvCursorSpeed = view.findViewById(R.id.TVCursorSpeed);
         final SeekBar sbCursorSpeed = view.findViewById(R.id.SBCursorSpeed);
         sbCursorSpeed.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
@@ -317,9 +326,12 @@ public class SettingsFragment extends Fragment {
             editor.putString("fexcore_preset", FEXCorePresetManager.getSpinnerSelectedId(sFEXCorePreset));
             editor.putBoolean("use_dri3", cbUseDRI3.isChecked());
             editor.putBoolean("use_xr", cbUseXR.isChecked());
+            editor.putBoolean("enable_parallel_dispatch", cbEnableParallelDispatch.isChecked());
             editor.putFloat("cursor_speed", sbCursorSpeed.getProgress() / 100.0f);
             editor.putBoolean("enable_wine_debug", cbEnableWineDebug.isChecked());
             editor.putBoolean("enable_box64_logs", cbEnableBox64Logs.isChecked());
+            editor.putBoolean("enable_xserver_capture", cbEnableXServerCapture.isChecked());
+            editor.putBoolean("enable_xserver_statistics", cbEnableXServerStatistics.isChecked());
             editor.putBoolean("cursor_lock", cbCursorLock.isChecked()); // Save cursor lock state
             editor.putBoolean("xinput_toggle", cbXinputToggle.isChecked()); // Save xinput toggle state
             editor.putBoolean("enable_file_provider", cbEnableFileProvider.isChecked());
@@ -63,6 +63,7 @@ import com.winlator.cmod.contents.ContentsManager;
 import com.winlator.cmod.contents.AdrenotoolsManager;
 import com.winlator.cmod.core.AppUtils;
 import com.winlator.cmod.core.DefaultVersion;
+import com.winlator.cmod.core.DirectBufferPool;
 import com.winlator.cmod.core.EnvVars;
 import com.winlator.cmod.core.FileUtils;
 import com.winlator.cmod.core.GPUInformation;
@@ -86,6 +87,7 @@ import com.winlator.cmod.math.XForm;
 import com.winlator.cmod.midi.MidiHandler;
 import com.winlator.cmod.midi.MidiManager;
 import com.winlator.cmod.renderer.GLRenderer;
+import com.winlator.cmod.renderer.TexturePool;
 import com.winlator.cmod.renderer.effects.CRTEffect;
 import com.winlator.cmod.renderer.effects.ColorEffect;
 import com.winlator.cmod.renderer.effects.FXAAEffect;
@@ -766,6 +768,23 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
         ProcessHelper.pauseAllWineProcesses();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level < TRIM_MEMORY_RUNNING_LOW) return;
+
+        boolean critical = level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND;
+        DirectBufferPool bufferPool = DirectBufferPool.getInstance();
+        bufferPool.trim(critical ? 0 : bufferPool.getResidentBytes() / 2);
+
+        if (xServerView != null) {
+            xServerView.queueEvent(() -> {
+                TexturePool texturePool = TexturePool.getInstance();
+                texturePool.trim(critical ? 0 : texturePool.getPooledBytes() / 2);
+            });
+        }
+    }
+
 
     private void savePlaytimeData() {
         long endTime = System.currentTimeMillis();
@@ -1127,12 +1146,23 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
                         UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH)
                 )
         );
-        environment.addComponent(
-                new XServerComponent(
-                        xServer,
-                        UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)
-                )
+        XServerComponent xServerComponent = new XServerComponent(
+                xServer,
+                UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)
         );
+        if (preferences.getBoolean("enable_parallel_dispatch", false)) {
+            xServerComponent.setDispatchThreads(Math.min(Runtime.getRuntime().availableProcessors(), 4));
+        }
+        File logsDir = new File(SettingsFragment.DEFAULT_WINLATOR_PATH, "logs");
+        if (preferences.getBoolean("enable_xserver_capture", false)) {
+            logsDir.mkdirs();
+            xServerComponent.setCaptureFile(new File(logsDir, "xserver.xcap"));
+        }
+        if (preferences.getBoolean("enable_xserver_statistics", false)) {
+            logsDir.mkdirs();
+            xServerComponent.setStatisticsFile(new File(logsDir, "xserver_stats.txt"));
+        }
+        environment.addComponent(xServerComponent);
 
         // Audio driver logic
         if (audioDriver.equals("alsa")) {
@@ -0,0 +1,202 @@
+package com.winlator.cmod.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+
+public class DirectBufferPool {
+    private static final int MIN_SIZE_SHIFT = 12;
+    private static final int MAX_SIZE_SHIFT = 26;
+    private static final int SUBCLASS_BITS = 3;
+    private static final int SUBCLASS_COUNT = 1 << SUBCLASS_BITS;
+    private static final int MIN_SIZE = 1 << MIN_SIZE_SHIFT;
+    private static final int MAX_SIZE = 1 << MAX_SIZE_SHIFT;
+    public static final int DEFAULT_MAX_RESIDENT_BYTES = 64 * 1024 * 1024;
+    private static final byte[] ZERO = new byte[65536];
+    private static DirectBufferPool instance;
+    private final ArrayDeque<ByteBuffer>[] freeBuffers;
+    private final HashMap<Integer, LentBuffer> lentBuffers = new HashMap<>();
+    private final ReferenceQueue<ByteBuffer> collectedBuffers = new ReferenceQueue<>();
+    private long maxResidentBytes = DEFAULT_MAX_RESIDENT_BYTES;
+    private long residentBytes = 0;
+    private long lentBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /* Lent buffers are tracked weakly so a buffer that is never released is dropped, not pinned, once collected */
+    private static class LentBuffer extends WeakReference<ByteBuffer> {
+        private final ByteBuffer backing;
+        private final int hash;
+        private LentBuffer next;
+
+        private LentBuffer(ByteBuffer buffer, ByteBuffer backing, ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.backing = backing;
+            this.hash = System.identityHashCode(buffer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool() {
+        freeBuffers = (ArrayDeque<ByteBuffer>[])new ArrayDeque<?>[(MAX_SIZE_SHIFT - MIN_SIZE_SHIFT) * SUBCLASS_COUNT + 1];
+        for (int i = 0; i < freeBuffers.length; i++) freeBuffers[i] = new ArrayDeque<>();
+    }
+
+    public static synchronized DirectBufferPool getInstance() {
+        if (instance == null) instance = new DirectBufferPool();
+        return instance;
+    }
+
+    public static int getSizeClass(int capacity) {
+        if (capacity <= MIN_SIZE) return MIN_SIZE;
+        if (capacity > MAX_SIZE) return capacity;
+        int base = Integer.highestOneBit(capacity - 1);
+        int step = Math.max(base >> SUBCLASS_BITS, 1);
+        return base + ((capacity - base + step - 1) / step) * step;
+    }
+
+    private static int getSizeClassIndex(int sizeClass) {
+        if (sizeClass <= MIN_SIZE) return 0;
+        int shift = 31 - Integer.numberOfLeadingZeros(sizeClass - 1);
+        int base = 1 << shift;
+        int step = base >> SUBCLASS_BITS;
+        return (shift - MIN_SIZE_SHIFT) * SUBCLASS_COUNT + (sizeClass - base) / step;
+    }
+
+    public ByteBuffer acquire(int capacity) {
+        return acquire(capacity, false);
+    }
+
+    public ByteBuffer acquire(int capacity, boolean zeroed) {
+        int sizeClass = getSizeClass(capacity);
+        if (sizeClass > MAX_SIZE) return ByteBuffer.allocateDirect(capacity);
+
+        ByteBuffer backing;
+        synchronized (this) {
+            expungeCollectedBuffers();
+            backing = freeBuffers[getSizeClassIndex(sizeClass)].poll();
+            if (backing != null) {
+                residentBytes -= sizeClass;
+                hits++;
+            }
+            else misses++;
+        }
+
+        boolean reused = backing != null;
+        if (!reused) backing = ByteBuffer.allocateDirect(sizeClass);
+
+        backing.clear().limit(capacity);
+        ByteBuffer buffer = backing.slice();
+        if (reused && zeroed) clear(buffer);
+
+        synchronized (this) {
+            LentBuffer lentBuffer = new LentBuffer(buffer, backing, collectedBuffers);
+            lentBuffer.next = lentBuffers.put(lentBuffer.hash, lentBuffer);
+            lentBytes += sizeClass;
+        }
+        return buffer;
+    }
+
+    public synchronized boolean release(ByteBuffer buffer) {
+        if (buffer == null) return false;
+        expungeCollectedBuffers();
+
+        int hash = System.identityHashCode(buffer);
+        LentBuffer lentBuffer = lentBuffers.get(hash);
+        while (lentBuffer != null && lentBuffer.get() != buffer) lentBuffer = lentBuffer.next;
+        if (lentBuffer == null) return false;
+
+        removeLentBuffer(lentBuffer);
+        lentBuffer.clear();
+        recycle(lentBuffer.backing);
+        return true;
+    }
+
+    private void expungeCollectedBuffers() {
+        LentBuffer lentBuffer;
+        while ((lentBuffer = (LentBuffer)collectedBuffers.poll()) != null) {
+            if (removeLentBuffer(lentBuffer)) lentBytes -= lentBuffer.backing.capacity();
+        }
+    }
+
+    private boolean removeLentBuffer(LentBuffer lentBuffer) {
+        LentBuffer head = lentBuffers.get(lentBuffer.hash);
+        if (head == lentBuffer) {
+            if (lentBuffer.next != null) {
+                lentBuffers.put(lentBuffer.hash, lentBuffer.next);
+            }
+            else lentBuffers.remove(lentBuffer.hash);
+            return true;
+        }
+
+        while (head != null && head.next != lentBuffer) head = head.next;
+        if (head == null) return false;
+        head.next = lentBuffer.next;
+        return true;
+    }
+
+    private void recycle(ByteBuffer backing) {
+        int sizeClass = backing.capacity();
+        lentBytes -= sizeClass;
+        if (residentBytes + sizeClass <= maxResidentBytes) {
+            freeBuffers[getSizeClassIndex(sizeClass)].add(backing);
+            residentBytes += sizeClass;
+        }
+    }
+
+    public ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        int position = buffer.position();
+        int newCapacity = getSizeClass(Math.max(minCapacity, buffer.capacity() * 2));
+        ByteBuffer newBuffer = acquire(newCapacity).order(buffer.order());
+        buffer.rewind().limit(position);
+        newBuffer.put(buffer);
+        release(buffer);
+        return newBuffer;
+    }
+
+    public synchronized void trim(long maxResidentBytes) {
+        for (int i = freeBuffers.length - 1; i >= 0 && residentBytes > maxResidentBytes; i--) {
+            while (!freeBuffers[i].isEmpty() && residentBytes > maxResidentBytes) {
+                residentBytes -= freeBuffers[i].poll().capacity();
+            }
+        }
+    }
+
+    private static void clear(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) buffer.put(ZERO, 0, Math.min(ZERO.length, buffer.remaining()));
+        buffer.rewind();
+    }
+
+    public synchronized long getMaxResidentBytes() {
+        return maxResidentBytes;
+    }
+
+    public synchronized void setMaxResidentBytes(long maxResidentBytes) {
+        this.maxResidentBytes = maxResidentBytes;
+        trim(maxResidentBytes);
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized long getLentBytes() {
+        return lentBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "hits=%d misses=%d resident=%dKB lent=%dKB", hits, misses, residentBytes / 1024, lentBytes / 1024);
+    }
+}
@@ -0,0 +1,72 @@
+package com.winlator.cmod.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    private static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int)((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    private static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return ((long)(index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(getBucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value));
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getSum() {
+        return totalSum.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count > 0 ? (double)totalSum.get() / count : 0;
+    }
+
+    public long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) return 0;
+
+        long target = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+            if (total >= target) return Math.min(getBucketUpperBound(i), maxValue.get());
+        }
+        return maxValue.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+}
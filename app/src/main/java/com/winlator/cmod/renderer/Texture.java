@@ -2,6 +2,7 @@ package com.winlator.cmod.renderer;
 
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 import com.winlator.cmod.XrActivity;
 import com.winlator.cmod.xserver.Drawable;
@@ -17,6 +18,13 @@ public class Texture {
     protected int format = GLES11Ext.GL_BGRA;
     protected boolean needsUpdate = true;
     protected byte unpackAlignment = 4; // or add a getter method
+    private static final int MAX_DAMAGE_RECTS = 8;
+    private static final float FULL_UPLOAD_AREA_RATIO = 0.5f;
+    private final int[] damageRects = new int[MAX_DAMAGE_RECTS * 4];
+    private int damageRectCount = 0;
+    private boolean fullDamage = true;
+    private ByteBuffer uploadData;
+    private ByteBuffer uploadSource;
 
 
     public void allocateTexture(short width, short height, ByteBuffer data) {
@@ -84,25 +92,102 @@ public class Texture {
         return needsUpdate;
     }
 
-    public void setNeedsUpdate(boolean needsUpdate) {
+    public synchronized void setNeedsUpdate(boolean needsUpdate) {
         this.needsUpdate = needsUpdate;
+        fullDamage = needsUpdate;
+        damageRectCount = 0;
+    }
+
+    public synchronized void addDamage(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) return;
+        needsUpdate = true;
+        if (fullDamage) return;
+
+        int x1 = x + width;
+        int y1 = y + height;
+        for (int i = 0; i < damageRectCount; i++) {
+            int j = i * 4;
+            if (x <= damageRects[j+2] && y <= damageRects[j+3] && x1 >= damageRects[j+0] && y1 >= damageRects[j+1]) {
+                damageRects[j+0] = Math.min(damageRects[j+0], x);
+                damageRects[j+1] = Math.min(damageRects[j+1], y);
+                damageRects[j+2] = Math.max(damageRects[j+2], x1);
+                damageRects[j+3] = Math.max(damageRects[j+3], y1);
+                return;
+            }
+        }
+
+        if (damageRectCount == MAX_DAMAGE_RECTS) {
+            for (int i = 1; i < damageRectCount; i++) {
+                int j = i * 4;
+                x = Math.min(x, damageRects[j+0]);
+                y = Math.min(y, damageRects[j+1]);
+                x1 = Math.max(x1, damageRects[j+2]);
+                y1 = Math.max(y1, damageRects[j+3]);
+            }
+            damageRectCount = 0;
+            x = Math.min(x, damageRects[0]);
+            y = Math.min(y, damageRects[1]);
+            x1 = Math.max(x1, damageRects[2]);
+            y1 = Math.max(y1, damageRects[3]);
+        }
+
+        int j = damageRectCount++ * 4;
+        damageRects[j+0] = x;
+        damageRects[j+1] = y;
+        damageRects[j+2] = x1;
+        damageRects[j+3] = y1;
     }
 
     public void updateFromDrawable(Drawable drawable) {
         ByteBuffer data = drawable.getData();
         if (data == null) return;
 
-        if (!isAllocated()) {
+        if (!isAllocated() && !TexturePool.getInstance().acquire(this, drawable.width, drawable.height)) {
             allocateTexture(drawable.width, drawable.height, data);
         }
         else if (needsUpdate) {
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+            uploadDamage(drawable.width, drawable.height, data);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-            needsUpdate = false;
         }
     }
 
+    private synchronized void uploadDamage(short width, short height, ByteBuffer data) {
+        int damagedArea = 0;
+        for (int i = 0; i < damageRectCount; i++) {
+            int j = i * 4;
+            damagedArea += (damageRects[j+2] - damageRects[j+0]) * (damageRects[j+3] - damageRects[j+1]);
+        }
+
+        if (fullDamage || damageRectCount == 0 || damagedArea > width * height * FULL_UPLOAD_AREA_RATIO) {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, data);
+        }
+        else {
+            if (uploadSource != data) {
+                uploadData = data.duplicate();
+                uploadSource = data;
+            }
+
+            GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, width);
+            for (int i = 0; i < damageRectCount; i++) {
+                int j = i * 4;
+                int x0 = Math.max(damageRects[j+0], 0);
+                int y0 = Math.max(damageRects[j+1], 0);
+                int x1 = Math.min(damageRects[j+2], width);
+                int y1 = Math.min(damageRects[j+3], height);
+                if (x0 >= x1 || y0 >= y1) continue;
+
+                uploadData.limit(uploadData.capacity()).position((y0 * width + x0) * 4);
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, x0, y0, x1 - x0, y1 - y0, format, GLES20.GL_UNSIGNED_BYTE, uploadData);
+            }
+            GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+        }
+
+        needsUpdate = false;
+        fullDamage = false;
+        damageRectCount = 0;
+    }
+
     public boolean isAllocated() {
         return textureId > 0;
     }
@@ -0,0 +1,102 @@
+package com.winlator.cmod.renderer;
+
+import android.opengl.GLES20;
+import android.util.LongSparseArray;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/* Recycles the GL textures of removed drawables, all methods must be called on the GL thread */
+public class TexturePool {
+    public static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+    private static TexturePool instance;
+    private final LongSparseArray<ArrayDeque<Integer>> freeTextures = new LongSparseArray<>();
+    private long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+    private long pooledBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public static synchronized TexturePool getInstance() {
+        if (instance == null) instance = new TexturePool();
+        return instance;
+    }
+
+    private static long getKey(short width, short height, int format) {
+        return ((long)(width & 0xffff) << 48) | ((long)(height & 0xffff) << 32) | (format & 0xffffffffL);
+    }
+
+    private static long getSize(short width, short height) {
+        return (long)width * height * 4;
+    }
+
+    public synchronized boolean acquire(Texture texture, short width, short height) {
+        if (texture.getClass() != Texture.class || texture.isAllocated()) return false;
+
+        ArrayDeque<Integer> textureIds = freeTextures.get(getKey(width, height, texture.format));
+        if (textureIds == null || textureIds.isEmpty()) {
+            misses++;
+            return false;
+        }
+
+        texture.textureId = textureIds.poll();
+        texture.setNeedsUpdate(true);
+        pooledBytes -= getSize(width, height);
+        hits++;
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.textureId);
+        texture.setTextureParameters();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return true;
+    }
+
+    public synchronized boolean recycle(Texture texture, short width, short height) {
+        if (texture.getClass() != Texture.class || !texture.isAllocated()) return false;
+        long size = getSize(width, height);
+        if (pooledBytes + size > maxPooledBytes) return false;
+
+        long key = getKey(width, height, texture.format);
+        ArrayDeque<Integer> textureIds = freeTextures.get(key);
+        if (textureIds == null) freeTextures.put(key, (textureIds = new ArrayDeque<>()));
+        textureIds.add(texture.textureId);
+        texture.textureId = 0;
+        pooledBytes += size;
+        return true;
+    }
+
+    public synchronized void trim(long maxPooledBytes) {
+        for (int i = freeTextures.size()-1; i >= 0 && pooledBytes > maxPooledBytes; i--) {
+            long key = freeTextures.keyAt(i);
+            long size = getSize((short)(key >>> 48), (short)(key >>> 32));
+            ArrayDeque<Integer> textureIds = freeTextures.valueAt(i);
+            while (!textureIds.isEmpty() && pooledBytes > maxPooledBytes) {
+                GLES20.glDeleteTextures(1, new int[]{textureIds.poll()}, 0);
+                pooledBytes -= size;
+            }
+            if (textureIds.isEmpty()) freeTextures.removeAt(i);
+        }
+    }
+
+    /* Forgets pooled ids without deleting them, used when the EGL context that owned them is gone */
+    public synchronized void clear() {
+        freeTextures.clear();
+        pooledBytes = 0;
+    }
+
+    public synchronized long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        trim(maxPooledBytes);
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "hits=%d misses=%d pooled=%dKB", hits, misses, pooledBytes / 1024);
+    }
+}
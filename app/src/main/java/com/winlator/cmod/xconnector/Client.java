@@ -6,25 +6,49 @@ import java.nio.ByteOrder;
 
 public class Client {
     public final ClientSocket clientSocket;
-    private final XConnectorEpoll connector;
+    protected final XConnectorEpoll connector;
     private XInputStream inputStream;
     private XOutputStream outputStream;
     private Object tag;
     protected Thread pollThread;
     protected int shutdownFd;
     protected boolean connected;
+    protected volatile boolean writePending;
+    protected boolean flushDeferred;
+    protected boolean dispatchRunning;
+    protected boolean dispatchAgain;
+    protected boolean killRequested;
+    protected boolean backlogged;
+    protected int passRequestCount;
+    protected int passByteCount;
 
     public Client(XConnectorEpoll connector, ClientSocket clientSocket) {
         this.connector = connector;
         this.clientSocket = clientSocket;
     }
 
+    public Client(XInputStream inputStream, XOutputStream outputStream) {
+        this((XConnectorEpoll)null, null);
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        inputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+    }
+
     public void createIOStreams() {
         if (inputStream != null || outputStream != null) return;
         inputStream = new XInputStream(clientSocket, connector.getInitialInputBufferCapacity());
         outputStream = new XOutputStream(clientSocket, connector.getInitialOutputBufferCapacity());
+        outputStream.setMaxPendingBytes(connector.getMaxPendingOutputBytes());
+        outputStream.client = this;
         inputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        inputStream.setRecorder(connector.getRecorder());
+    }
+
+    public void closeIOStreams() {
+        if (outputStream != null) outputStream.close();
+        if (inputStream != null) inputStream.close();
     }
 
     public XInputStream getInputStream() {
@@ -43,6 +67,11 @@ public class Client {
         this.tag = tag;
     }
 
+    protected void setWritePending(boolean writePending) {
+        this.writePending = writePending;
+        connector.setWriteInterest(this, writePending);
+    }
+
     protected void requestShutdown() {
         try {
             ByteBuffer data = ByteBuffer.allocateDirect(8);
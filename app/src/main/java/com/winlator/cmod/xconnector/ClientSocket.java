@@ -9,8 +9,11 @@ import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 
 public class ClientSocket {
+    private static final int WOULD_BLOCK = -2;
     public final int fd;
     private final ArrayDeque<Integer> ancillaryFds = new ArrayDeque<>();
+    private int[] gatheredOffsets;
+    private int[] gatheredLengths;
 
     static {
         System.loadLibrary("winlator");
@@ -43,17 +46,58 @@ public class ClientSocket {
         else if (bytesRead == 0) {
             return -1;
         }
+        else if (bytesRead == WOULD_BLOCK) {
+            return 0;
+        }
         else throw new IOException("Failed to read data.");
     }
 
     public void write(ByteBuffer data) throws IOException {
-        int bytesWritten = write(fd, data, data.limit());
+        int position = data.position();
+        int bytesWritten = write(fd, data, position, data.remaining());
         if (bytesWritten >= 0) {
-            data.position(bytesWritten);
+            data.position(position + bytesWritten);
         }
         else Log.d("ClientSocket", "Failed to write data.");
     }
 
+    public int send(ByteBuffer data) throws IOException {
+        int position = data.position();
+        int bytesSent = send(fd, data, position, data.remaining());
+        if (bytesSent >= 0) {
+            data.position(position + bytesSent);
+            return bytesSent;
+        }
+        else if (bytesSent == WOULD_BLOCK) {
+            return 0;
+        }
+        else throw new IOException("Failed to send data.");
+    }
+
+    public int send(ByteBuffer[] data, int count) throws IOException {
+        if (gatheredOffsets == null || gatheredOffsets.length < count) {
+            gatheredOffsets = new int[count];
+            gatheredLengths = new int[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            gatheredOffsets[i] = data[i].position();
+            gatheredLengths[i] = data[i].remaining();
+        }
+
+        int bytesSent = sendv(fd, data, gatheredOffsets, gatheredLengths, count);
+        if (bytesSent == WOULD_BLOCK) return 0;
+        if (bytesSent < 0) throw new IOException("Failed to send data.");
+
+        int remaining = bytesSent;
+        for (int i = 0; i < count && remaining > 0; i++) {
+            int length = Math.min(remaining, gatheredLengths[i]);
+            data[i].position(gatheredOffsets[i] + length);
+            remaining -= length;
+        }
+        return bytesSent;
+    }
+
     public int recvAncillaryMsg(ByteBuffer data) throws IOException {
         int position = data.position();
         int bytesRead = recvAncillaryMsg(fd, data, position, data.remaining());
@@ -64,22 +108,36 @@ public class ClientSocket {
         else if (bytesRead == 0) {
             return -1;
         }
+        else if (bytesRead == WOULD_BLOCK) {
+            return 0;
+        }
         else throw new IOException("Failed to receive ancillary messages.");
     }
 
-    public void sendAncillaryMsg(ByteBuffer data, int ancillaryFd) throws IOException {
-        int bytesSent = sendAncillaryMsg(fd, data, data.limit(), ancillaryFd);
+    public int sendAncillaryMsg(ByteBuffer data, int ancillaryFd) throws IOException {
+        int position = data.position();
+        int bytesSent = sendAncillaryMsg(fd, data, position, data.remaining(), ancillaryFd);
         if (bytesSent >= 0) {
-            data.position(bytesSent);
+            data.position(position + bytesSent);
+            return bytesSent;
+        }
+        else if (bytesSent == WOULD_BLOCK) {
+            return 0;
         }
         else throw new IOException("Failed to send ancillary messages.");
     }
 
     private native int read(int fd, ByteBuffer data, int offset, int length);
 
-    private native int write(int fd, ByteBuffer data, int length);
+    private native int write(int fd, ByteBuffer data, int offset, int length);
+
+    private native int send(int fd, ByteBuffer data, int offset, int length);
+
+    private native int sendv(int fd, ByteBuffer[] data, int[] offsets, int[] lengths, int count);
 
     private native int recvAncillaryMsg(int clientFd, ByteBuffer data, int offset, int length);
 
-    private native int sendAncillaryMsg(int clientFd, ByteBuffer data, int length, int ancillaryFd);
+    private native int sendAncillaryMsg(int clientFd, ByteBuffer data, int offset, int length, int ancillaryFd);
+
+    static native int duplicateFd(int fd);
 }
@@ -4,4 +4,8 @@ import java.io.IOException;
 
 public interface RequestHandler {
     boolean handleRequest(Client client) throws IOException;
+
+    default boolean isPriorityClient(Client client) {
+        return false;
+    }
 }
@@ -6,25 +6,51 @@ import androidx.annotation.Keep;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class XConnectorEpoll implements Runnable {
     private final ConnectionHandler connectionHandler;
     private final RequestHandler requestHandler;
     private final int epollFd;
     private final int serverFd;
-    private final int shutdownFd;
+    private final int wakeupFd;
+    private long epollEvents;
     private Thread epollThread;
     private boolean running = false;
     private boolean multithreadedClients = false;
     private boolean canReceiveAncillaryMessages = false;
+    private boolean deferredFlushes = false;
+    private boolean edgeTriggered = false;
+    private int maxEvents = 64;
+    private int dispatchThreads = 0;
+    private ExecutorService dispatchExecutor;
+    private XStreamRecorder recorder;
     private int initialInputBufferCapacity = 4096;
     private int initialOutputBufferCapacity = 4096;
+    private int maxPendingOutputBytes = XOutputStream.DEFAULT_MAX_PENDING_BYTES;
     private final SparseArray<Client> connectedClients = new SparseArray<>();
+    private final ThreadLocal<DispatchContext> dispatchContext = ThreadLocal.withInitial(DispatchContext::new);
+    private final AtomicLong savedFlushSyscalls = new AtomicLong();
+    private final ArrayDeque<Client> pendingKillClients = new ArrayDeque<>();
+    private final ArrayDeque<Client> backloggedClients = new ArrayDeque<>();
+    private int maxRequestsPerPass = 0;
+    private int maxBytesPerPass = 0;
+    private int priorityBudgetMultiplier = 4;
 
     static {
         System.loadLibrary("winlator");
     }
 
+    private static class DispatchContext {
+        private boolean active;
+        private final ArrayList<Client> deferredFlushClients = new ArrayList<>();
+    }
+
     public XConnectorEpoll(UnixSocketConfig socketConfig, ConnectionHandler connectionHandler, RequestHandler requestHandler) {
         this.connectionHandler = connectionHandler;
         this.requestHandler = requestHandler;
@@ -46,12 +72,12 @@ public class XConnectorEpoll implements Runnable {
             throw new RuntimeException("Failed to add server fd to epoll.");
         }
 
-        shutdownFd = createEventFd();
-        if (!addFdToEpoll(epollFd, shutdownFd)) {
+        wakeupFd = createEventFd();
+        if (!addFdToEpoll(epollFd, wakeupFd)) {
             closeFd(serverFd);
-            closeFd(shutdownFd);
+            closeFd(wakeupFd);
             closeFd(epollFd);
-            throw new RuntimeException("Failed to add shutdown fd to epoll.");
+            throw new RuntimeException("Failed to add wakeup fd to epoll.");
         }
 
         epollThread = new Thread(this);
@@ -59,6 +85,12 @@ public class XConnectorEpoll implements Runnable {
 
     public synchronized void start() {
         if (running || epollThread == null) return;
+        epollEvents = allocEpollEvents(maxEvents);
+        if (epollEvents == 0) throw new RuntimeException("Failed to allocate epoll events.");
+        if (dispatchThreads > 0 && !multithreadedClients) {
+            edgeTriggered = true;
+            dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads);
+        }
         running = true;
         epollThread.start();
     }
@@ -66,7 +98,7 @@ public class XConnectorEpoll implements Runnable {
     public synchronized void stop() {
         if (!running || epollThread == null) return;
         running = false;
-        requestShutdown();
+        wakeup();
 
         while (epollThread.isAlive()) {
             try {
@@ -79,7 +111,9 @@ public class XConnectorEpoll implements Runnable {
 
     @Override
     public void run() {
-        while (running && doEpollIndefinitely(epollFd, serverFd, !multithreadedClients));
+        while (running && doEpollIndefinitely(epollFd, serverFd, wakeupFd, epollEvents, maxEvents, !multithreadedClients, edgeTriggered, backloggedClients.isEmpty() ? -1 : 0)) {
+            if (!backloggedClients.isEmpty()) dispatchBackloggedClients();
+        }
         shutdown();
     }
 
@@ -91,7 +125,7 @@ public class XConnectorEpoll implements Runnable {
             client.shutdownFd = createEventFd();
             client.pollThread = new Thread(() -> {
                 connectionHandler.handleNewConnection(client);
-                while (client.connected && waitForSocketRead(client.clientSocket.fd, client.shutdownFd));
+                while (client.connected && waitForSocketEvents(client.clientSocket.fd, client.shutdownFd, client.writePending));
             });
             client.pollThread.start();
         }
@@ -104,29 +138,213 @@ public class XConnectorEpoll implements Runnable {
         Client client = connectedClients.get(fd);
         if (client == null) return;
 
+        if (dispatchExecutor != null) {
+            scheduleDispatch(client);
+        }
+        else if (!client.backlogged && !dispatchRequests(client)) killConnection(client);
+    }
+
+    private void dispatchBackloggedClients() {
+        int count = backloggedClients.size();
+        for (int i = 0; i < count && running; i++) {
+            Client client = backloggedClients.poll();
+            client.backlogged = false;
+            if (client.connected && !dispatchRequests(client)) killConnection(client);
+        }
+    }
+
+    private boolean isBudgetExhausted(Client client, int requestCount, int byteCount) {
+        int multiplier = requestHandler.isPriorityClient(client) ? priorityBudgetMultiplier : 1;
+        return (maxRequestsPerPass > 0 && requestCount >= maxRequestsPerPass * multiplier) ||
+               (maxBytesPerPass > 0 && byteCount >= maxBytesPerPass * multiplier);
+    }
+
+    private boolean handleBufferedRequests(Client client, boolean budgeted) throws IOException {
+        XInputStream inputStream = client.getInputStream();
+        int activePosition = inputStream.getActivePosition();
+        int startPosition = activePosition;
+        boolean exhausted = false;
+
+        while (running && requestHandler.handleRequest(client)) {
+            activePosition = inputStream.getActivePosition();
+            client.passRequestCount++;
+            if (budgeted && isBudgetExhausted(client, client.passRequestCount, client.passByteCount + activePosition - startPosition)) {
+                exhausted = true;
+                break;
+            }
+        }
+
+        client.passByteCount += activePosition - startPosition;
+        inputStream.setActivePosition(activePosition);
+        return !exhausted;
+    }
+
+    private boolean dispatchRequests(Client client) {
+        DispatchContext context = dispatchContext.get();
         XInputStream inputStream = client.getInputStream();
+        context.active = true;
         try {
             if (inputStream != null) {
-                if (inputStream.readMoreData(canReceiveAncillaryMessages) > 0) {
-                    int activePosition = 0;
-                    while (running && requestHandler.handleRequest(client)) activePosition = inputStream.getActivePosition();
-                    inputStream.setActivePosition(activePosition);
+                boolean budgeted = dispatchExecutor == null && !multithreadedClients && (maxRequestsPerPass > 0 || maxBytesPerPass > 0);
+                client.passRequestCount = 0;
+                client.passByteCount = 0;
+
+                if (inputStream.hasBufferedData() && !handleBufferedRequests(client, budgeted)) {
+                    addBackloggedClient(client);
+                    return true;
                 }
-                else killConnection(client);
+
+                int bytesRead;
+                do {
+                    bytesRead = inputStream.readMoreData(canReceiveAncillaryMessages);
+                    if (bytesRead > 0 && !handleBufferedRequests(client, budgeted)) {
+                        addBackloggedClient(client);
+                        return true;
+                    }
+                }
+                while (edgeTriggered && bytesRead > 0 && client.connected);
+
+                return bytesRead >= 0;
             }
             else requestHandler.handleRequest(client);
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            context.active = false;
+            flushDeferredClients(context);
+        }
+    }
+
+    private void addBackloggedClient(Client client) {
+        if (client.backlogged || !client.connected) return;
+        client.backlogged = true;
+        backloggedClients.add(client);
+    }
+
+    private void scheduleDispatch(final Client client) {
+        synchronized (client) {
+            if (client.killRequested) return;
+            if (client.dispatchRunning) {
+                client.dispatchAgain = true;
+                return;
+            }
+            client.dispatchRunning = true;
+        }
+
+        dispatchExecutor.execute(() -> {
+            boolean alive = true;
+            boolean killRequested;
+            while (true) {
+                if (alive) alive = dispatchRequests(client);
+                synchronized (client) {
+                    if (!alive) client.killRequested = true;
+                    if (client.killRequested || !client.dispatchAgain) {
+                        client.dispatchRunning = false;
+                        killRequested = client.killRequested;
+                        break;
+                    }
+                    client.dispatchAgain = false;
+                }
+            }
+
+            if (killRequested) requestKillConnection(client);
+        });
+    }
+
+    protected boolean deferFlush(Client client) {
+        if (!deferredFlushes) return false;
+        DispatchContext context = dispatchContext.get();
+        if (!context.active) return false;
+
+        if (client.flushDeferred) {
+            savedFlushSyscalls.incrementAndGet();
+        }
+        else {
+            client.flushDeferred = true;
+            context.deferredFlushClients.add(client);
+        }
+        return true;
+    }
+
+    private void flushDeferredClients(DispatchContext context) {
+        ArrayList<Client> deferredFlushClients = context.deferredFlushClients;
+        for (int i = 0; i < deferredFlushClients.size(); i++) {
+            Client client = deferredFlushClients.get(i);
+            if (!client.connected) continue;
+
+            try {
+                client.getOutputStream().flushDeferred();
+            }
+            catch (IOException e) {
+                requestKillConnection(client);
+            }
+        }
+        deferredFlushClients.clear();
+    }
+
+    protected void addSavedFlushSyscalls(int count) {
+        savedFlushSyscalls.addAndGet(count);
+    }
+
+    public long getSavedFlushSyscalls() {
+        return savedFlushSyscalls.get();
+    }
+
+    @Keep
+    private void handleWritableConnection(int fd) {
+        Client client = connectedClients.get(fd);
+        if (client == null) return;
+
+        XOutputStream outputStream = client.getOutputStream();
+        try {
+            if (outputStream != null) outputStream.writePendingData();
         }
         catch (IOException e) {
             killConnection(client);
         }
     }
 
+    @Keep
+    private void handleWakeup() {
+        while (true) {
+            Client client;
+            synchronized (pendingKillClients) {
+                client = pendingKillClients.poll();
+            }
+            if (client == null) break;
+            if (client.connected) killConnection(client);
+        }
+    }
+
+    protected void setWriteInterest(Client client, boolean enabled) {
+        if (!multithreadedClients && !edgeTriggered && client.connected) setFdWriteInterest(epollFd, client.clientSocket.fd, enabled);
+    }
+
+    public void requestKillConnection(Client client) {
+        synchronized (pendingKillClients) {
+            pendingKillClients.add(client);
+        }
+        wakeup();
+    }
+
     public Client getClient(int fd) {
         return connectedClients.get(fd);
     }
 
     public void killConnection(Client client) {
+        if (!client.connected) return;
+        if (dispatchExecutor != null) {
+            synchronized (client) {
+                client.killRequested = true;
+                if (client.dispatchRunning) return;
+            }
+        }
+
         client.connected = false;
+        if (client.getOutputStream() != null) client.getOutputStream().close();
         connectionHandler.handleConnectionShutdown(client);
         if (multithreadedClients) {
             if (Thread.currentThread() != client.pollThread) {
@@ -146,19 +364,31 @@ public class XConnectorEpoll implements Runnable {
         else removeFdFromEpoll(epollFd, client.clientSocket.fd);
         closeFd(client.clientSocket.fd);
         connectedClients.remove(client.clientSocket.fd);
+        if (client.getInputStream() != null) client.getInputStream().close();
     }
 
     private void shutdown() {
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown();
+            try {
+                while (!dispatchExecutor.awaitTermination(1, TimeUnit.SECONDS));
+            }
+            catch (InterruptedException e) {}
+            dispatchExecutor = null;
+        }
+
         while (connectedClients.size() > 0) {
             Client client = connectedClients.valueAt(connectedClients.size()-1);
             killConnection(client);
         }
 
         removeFdFromEpoll(epollFd, serverFd);
-        removeFdFromEpoll(epollFd, shutdownFd);
+        removeFdFromEpoll(epollFd, wakeupFd);
         closeFd(serverFd);
-        closeFd(shutdownFd);
+        closeFd(wakeupFd);
         closeFd(epollFd);
+        freeEpollEvents(epollEvents);
+        epollEvents = 0;
     }
 
     public int getInitialInputBufferCapacity() {
@@ -177,6 +407,78 @@ public class XConnectorEpoll implements Runnable {
         this.initialOutputBufferCapacity = initialOutputBufferCapacity;
     }
 
+    public int getMaxPendingOutputBytes() {
+        return maxPendingOutputBytes;
+    }
+
+    public void setMaxPendingOutputBytes(int maxPendingOutputBytes) {
+        this.maxPendingOutputBytes = maxPendingOutputBytes;
+    }
+
+    public boolean isDeferredFlushes() {
+        return deferredFlushes;
+    }
+
+    public void setDeferredFlushes(boolean deferredFlushes) {
+        this.deferredFlushes = deferredFlushes;
+    }
+
+    public XStreamRecorder getRecorder() {
+        return recorder;
+    }
+
+    public void setRecorder(XStreamRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public int getMaxRequestsPerPass() {
+        return maxRequestsPerPass;
+    }
+
+    public void setMaxRequestsPerPass(int maxRequestsPerPass) {
+        this.maxRequestsPerPass = maxRequestsPerPass;
+    }
+
+    public int getMaxBytesPerPass() {
+        return maxBytesPerPass;
+    }
+
+    public void setMaxBytesPerPass(int maxBytesPerPass) {
+        this.maxBytesPerPass = maxBytesPerPass;
+    }
+
+    public int getPriorityBudgetMultiplier() {
+        return priorityBudgetMultiplier;
+    }
+
+    public void setPriorityBudgetMultiplier(int priorityBudgetMultiplier) {
+        this.priorityBudgetMultiplier = priorityBudgetMultiplier;
+    }
+
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    public void setMaxEvents(int maxEvents) {
+        this.maxEvents = maxEvents;
+    }
+
+    public boolean isEdgeTriggered() {
+        return edgeTriggered;
+    }
+
+    public void setEdgeTriggered(boolean edgeTriggered) {
+        this.edgeTriggered = edgeTriggered;
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
     public boolean isMultithreadedClients() {
         return multithreadedClients;
     }
@@ -193,11 +495,11 @@ public class XConnectorEpoll implements Runnable {
         this.canReceiveAncillaryMessages = canReceiveAncillaryMessages;
     }
 
-    private void requestShutdown() {
+    private void wakeup() {
         try {
             ByteBuffer data = ByteBuffer.allocateDirect(8);
             data.asLongBuffer().put(1);
-            (new ClientSocket(shutdownFd)).write(data);
+            (new ClientSocket(wakeupFd)).write(data);
         }
         catch (IOException e) {}
     }
@@ -208,13 +510,19 @@ public class XConnectorEpoll implements Runnable {
 
     private native int createEventFd();
 
-    private native boolean doEpollIndefinitely(int epollFd, int serverFd, boolean addClientToEpoll);
+    private native long allocEpollEvents(int maxEvents);
+
+    private native void freeEpollEvents(long epollEvents);
+
+    private native boolean doEpollIndefinitely(int epollFd, int serverFd, int wakeupFd, long epollEvents, int maxEvents, boolean addClientToEpoll, boolean edgeTriggered, int timeout);
 
     private native boolean addFdToEpoll(int epollFd, int fd);
 
     private native void removeFdFromEpoll(int epollFd, int fd);
 
-    private native boolean waitForSocketRead(int clientFd, int shutdownFd);
+    private native boolean setFdWriteInterest(int epollFd, int fd, boolean enabled);
+
+    private native boolean waitForSocketEvents(int clientFd, int shutdownFd, boolean waitForWrite);
 
     private native int createAFUnixSocket(String path);
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.winlator.cmod.xconnector;
 
+import com.winlator.cmod.core.DirectBufferPool;
 import com.winlator.cmod.xserver.XServer;
 
 import java.io.IOException;
@@ -10,6 +11,8 @@ public class XInputStream {
     private ByteBuffer activeBuffer;
     private ByteBuffer buffer;
     public final ClientSocket clientSocket;
+    private XStreamRecorder recorder;
+    private int recorderClientId;
 
     public XInputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -17,10 +20,27 @@ public class XInputStream {
 
     public XInputStream(ClientSocket clientSocket, int initialCapacity) {
         this.clientSocket = clientSocket;
-        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+        this.buffer = DirectBufferPool.getInstance().acquire(initialCapacity);
     }
 
     public int readMoreData(boolean canReceiveAncillaryMessages) throws IOException {
+        compactBuffer();
+        growInputBufferIfNecessary(1);
+        int bytesRead = canReceiveAncillaryMessages ? clientSocket.recvAncillaryMsg(buffer) : clientSocket.read(buffer);
+        if (bytesRead > 0) updateActiveBuffer(bytesRead);
+        return bytesRead;
+    }
+
+    public int readMoreData(ByteBuffer data) {
+        compactBuffer();
+        int length = data.remaining();
+        growInputBufferIfNecessary(length);
+        buffer.put(data);
+        if (length > 0) updateActiveBuffer(length);
+        return length;
+    }
+
+    private void compactBuffer() {
         if (activeBuffer != null) {
             if (!activeBuffer.hasRemaining()) {
                 buffer.clear();
@@ -32,30 +52,40 @@ public class XInputStream {
             }
             activeBuffer = null;
         }
+    }
 
-        growInputBufferIfNecessary();
-        int bytesRead = canReceiveAncillaryMessages ? clientSocket.recvAncillaryMsg(buffer) : clientSocket.read(buffer);
+    private void updateActiveBuffer(int bytesRead) {
+        int position = buffer.position();
+        if (recorder != null) recorder.recordData(recorderClientId, buffer, position - bytesRead, bytesRead);
 
-        if (bytesRead > 0) {
-            int position = buffer.position();
-            buffer.flip();
-            activeBuffer = buffer.slice().order(buffer.order());
-            buffer.limit(buffer.capacity()).position(position);
-        }
-        return bytesRead;
+        buffer.flip();
+        activeBuffer = buffer.slice().order(buffer.order());
+        buffer.limit(buffer.capacity()).position(position);
+    }
+
+    public void setRecorder(XStreamRecorder recorder) {
+        this.recorder = recorder;
+        recorderClientId = recorder != null ? recorder.recordConnect() : 0;
     }
 
     public int getAncillaryFd() {
         return clientSocket.getAncillaryFd();
     }
 
-    private void growInputBufferIfNecessary() {
-        if (buffer.position() == buffer.capacity()) {
-            ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).order(buffer.order());
-            buffer.rewind();
-            newBuffer.put(buffer);
-            buffer = newBuffer;
+    private void growInputBufferIfNecessary(int length) {
+        if (buffer.capacity() - buffer.position() < length) {
+            buffer = DirectBufferPool.getInstance().grow(buffer, buffer.position() + length);
+        }
+    }
+
+    protected void close() {
+        if (recorder != null) {
+            recorder.recordDisconnect(recorderClientId);
+            recorder = null;
         }
+        DirectBufferPool.getInstance().release(buffer);
+        buffer = null;
+        activeBuffer = null;
     }
 
     public void setByteOrder(ByteOrder byteOrder) {
@@ -71,6 +101,10 @@ public class XInputStream {
         activeBuffer.position(activePosition);
     }
 
+    public boolean hasBufferedData() {
+        return activeBuffer != null && activeBuffer.hasRemaining();
+    }
+
     public int available() {
         return activeBuffer.remaining();
     }
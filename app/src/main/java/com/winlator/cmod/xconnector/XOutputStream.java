@@ -1,18 +1,41 @@
 package com.winlator.cmod.xconnector;
 
+import com.winlator.cmod.core.DirectBufferPool;
 import com.winlator.cmod.xserver.XServer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class XOutputStream {
+    public static final int DEFAULT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+    private static final int DEFERRED_FLUSH_THRESHOLD = 65536;
+    private static final int MAX_GATHERED_BUFFERS = 64;
     private static final byte[] ZERO = new byte[64];
     public ByteBuffer buffer;
     public final ClientSocket clientSocket;
     private final ReentrantLock lock = new ReentrantLock();
     private int ancillaryFd = -1;
+    private final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private final ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private int pendingBytes = 0;
+    private long flushedBytes = 0;
+    private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    private boolean closed = false;
+    protected Client client;
+
+    private static class PendingWrite {
+        private final ByteBuffer data;
+        private int ancillaryFd;
+
+        private PendingWrite(ByteBuffer data, int ancillaryFd) {
+            this.data = data;
+            this.ancillaryFd = ancillaryFd;
+        }
+    }
 
     public XOutputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -20,7 +43,7 @@ public class XOutputStream {
 
     public XOutputStream(ClientSocket clientSocket, int initialCapacity) {
         this.clientSocket = clientSocket;
-        buffer = ByteBuffer.allocateDirect(initialCapacity);
+        buffer = DirectBufferPool.getInstance().acquire(initialCapacity);
     }
 
     public void setByteOrder(ByteOrder byteOrder) {
@@ -31,6 +54,48 @@ public class XOutputStream {
         this.ancillaryFd = ancillaryFd;
     }
 
+    public int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    public void setMaxPendingBytes(int maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public long getTotalBytesWritten() {
+        return flushedBytes + buffer.position();
+    }
+
+    /* Drops the bytes written since offset if none of them has reached the socket yet, must be called with the stream lock held */
+    public boolean discardUnsentTail(long offset) {
+        int length = (int)(getTotalBytesWritten() - offset);
+        if (length <= 0 || closed) return length == 0;
+
+        int position = buffer.position();
+        if (position >= length) {
+            buffer.position(position - length);
+            return true;
+        }
+        else if (position > 0 || pendingWrites.isEmpty()) return false;
+
+        PendingWrite pendingWrite = pendingWrites.peekLast();
+        ByteBuffer data = pendingWrite.data;
+        if (pendingWrite.ancillaryFd != -1 || data.remaining() < length) return false;
+
+        data.limit(data.limit() - length);
+        pendingBytes -= length;
+        flushedBytes -= length;
+        if (!data.hasRemaining()) {
+            DirectBufferPool.getInstance().release(pendingWrites.pollLast().data);
+            if (pendingWrites.isEmpty() && client != null) client.setWritePending(false);
+        }
+        return true;
+    }
+
     public void writeByte(byte value) {
         ensureSpaceIsAvailable(1);
         buffer.put(value);
@@ -77,20 +142,163 @@ public class XOutputStream {
         write(ZERO, 0, length);
     }
 
+    /* Returns a direct view of the next length bytes of the stream, it must be filled before anything else is written */
+    public ByteBuffer reserve(int length) {
+        ensureSpaceIsAvailable(length);
+        int position = buffer.position();
+        ByteBuffer data = buffer.duplicate();
+        data.limit(position + length);
+        buffer.position(position + length);
+        return data.slice();
+    }
+
     private void flush() throws IOException {
-        if (buffer.position() != 0) {
-            buffer.flip();
+        if (buffer.position() == 0) return;
+        flushedBytes += buffer.position();
+        buffer.flip();
+
+        try {
+            if (closed) throw new IOException("Output stream is closed.");
+            if (clientSocket == null) {
+                buffer.position(buffer.limit());
+                return;
+            }
 
             if (ancillaryFd != -1) {
-                clientSocket.sendAncillaryMsg(buffer, ancillaryFd);
-                ancillaryFd = -1;
+                if (pendingWrites.isEmpty() && clientSocket.sendAncillaryMsg(buffer, ancillaryFd) > 0) ancillaryFd = -1;
             }
-            else clientSocket.write(buffer);
+            else if (pendingWrites.isEmpty()) {
+                clientSocket.send(buffer);
+            }
+            else sendPendingWrites(buffer);
 
+            if (buffer.hasRemaining()) enqueuePendingWrite();
+        }
+        finally {
+            ancillaryFd = -1;
             buffer.clear();
         }
     }
 
+    private void enqueuePendingWrite() throws IOException {
+        int length = buffer.remaining();
+        if (pendingBytes + length > maxPendingBytes) {
+            close();
+            if (client != null) client.connector.requestKillConnection(client);
+            throw new IOException("Pending output exceeded "+maxPendingBytes+" bytes, closing client connection.");
+        }
+
+        int pendingFd = -1;
+        if (ancillaryFd != -1) {
+            pendingFd = ClientSocket.duplicateFd(ancillaryFd);
+            if (pendingFd < 0) throw new IOException("Failed to duplicate ancillary fd.");
+        }
+
+        ByteBuffer data = DirectBufferPool.getInstance().acquire(length);
+        data.put(buffer).flip();
+        pendingWrites.add(new PendingWrite(data, pendingFd));
+        pendingBytes += length;
+        if (pendingWrites.size() == 1 && client != null) client.setWritePending(true);
+    }
+
+    private void sendPendingWrites(ByteBuffer tail) throws IOException {
+        while (!pendingWrites.isEmpty()) {
+            PendingWrite pendingWrite = pendingWrites.peek();
+            if (pendingWrite.ancillaryFd != -1) {
+                int bytesSent = clientSocket.sendAncillaryMsg(pendingWrite.data, pendingWrite.ancillaryFd);
+                if (bytesSent == 0) return;
+                XConnectorEpoll.closeFd(pendingWrite.ancillaryFd);
+                pendingWrite.ancillaryFd = -1;
+                pendingBytes -= bytesSent;
+                if (pendingWrite.data.hasRemaining()) return;
+                DirectBufferPool.getInstance().release(pendingWrites.poll().data);
+                continue;
+            }
+
+            int count = 0;
+            int gatheredBytes = 0;
+            for (PendingWrite gathered : pendingWrites) {
+                if (gathered.ancillaryFd != -1 || count == MAX_GATHERED_BUFFERS) break;
+                gatheredBuffers[count++] = gathered.data;
+                gatheredBytes += gathered.data.remaining();
+            }
+
+            int pendingCount = count;
+            if (tail != null && pendingCount == pendingWrites.size() && count < MAX_GATHERED_BUFFERS) {
+                gatheredBuffers[count++] = tail;
+            }
+
+            int bytesSent = count > 1 ? clientSocket.send(gatheredBuffers, count) : clientSocket.send(gatheredBuffers[0]);
+            Arrays.fill(gatheredBuffers, 0, count, null);
+            if (count > 1 && client != null) client.connector.addSavedFlushSyscalls(count - 1);
+            pendingBytes -= Math.min(bytesSent, gatheredBytes);
+
+            for (int i = 0; i < pendingCount; i++) {
+                if (pendingWrites.peek().data.hasRemaining()) return;
+                DirectBufferPool.getInstance().release(pendingWrites.poll().data);
+            }
+            if (count > pendingCount) return;
+        }
+
+        if (tail != null) clientSocket.send(tail);
+    }
+
+    public void writePendingData() throws IOException {
+        lock.lock();
+        try {
+            sendPendingWrites(null);
+            if (pendingWrites.isEmpty() && client != null) client.setWritePending(false);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    protected void flushDeferred() throws IOException {
+        lock.lock();
+        try {
+            if (client != null) client.flushDeferred = false;
+            flush();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            flush();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean hasPendingData() {
+        return !pendingWrites.isEmpty();
+    }
+
+    protected void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            while (!pendingWrites.isEmpty()) {
+                PendingWrite pendingWrite = pendingWrites.poll();
+                if (pendingWrite.ancillaryFd != -1) XConnectorEpoll.closeFd(pendingWrite.ancillaryFd);
+                DirectBufferPool.getInstance().release(pendingWrite.data);
+            }
+            pendingBytes = 0;
+
+            DirectBufferPool.getInstance().release(buffer);
+            buffer = ByteBuffer.allocateDirect(0).order(buffer.order());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     public XStreamLock lock() {
         return new OutputStreamLock();
     }
@@ -98,10 +306,13 @@ public class XOutputStream {
     private void ensureSpaceIsAvailable(int length) {
         int position = buffer.position();
         if ((buffer.capacity() - position) >= length) return;
-        ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() + length).order(buffer.order());
-        buffer.rewind();
-        newBuffer.put(buffer).position(position);
-        buffer = newBuffer;
+        if (closed) {
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect(position + length).order(buffer.order());
+            buffer.rewind();
+            newBuffer.put(buffer).position(position);
+            buffer = newBuffer;
+        }
+        else buffer = DirectBufferPool.getInstance().grow(buffer, position + length);
     }
 
     private class OutputStreamLock implements XStreamLock {
@@ -112,7 +323,9 @@ public class XOutputStream {
         @Override
         public void close() throws IOException {
             try {
-                flush();
+                if (ancillaryFd != -1 || buffer.position() >= DEFERRED_FLUSH_THRESHOLD || client == null || !client.connector.deferFlush(client)) {
+                    flush();
+                }
             }
             finally {
                 lock.unlock();
@@ -0,0 +1,76 @@
+package com.winlator.cmod.xconnector;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class XStreamRecorder implements Closeable {
+    public static final int MAGIC = 0x58434150;
+    public static final int VERSION = 1;
+    public static final byte RECORD_CONNECT = 0;
+    public static final byte RECORD_DATA = 1;
+    public static final byte RECORD_DISCONNECT = 2;
+    private final DataOutputStream outputStream;
+    private final long startTime = System.nanoTime();
+    private byte[] copyBuffer = new byte[4096];
+    private int nextClientId = 1;
+    private boolean closed = false;
+
+    public XStreamRecorder(File file) throws IOException {
+        outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+    }
+
+    public synchronized int recordConnect() {
+        int clientId = nextClientId++;
+        writeRecord(RECORD_CONNECT, clientId, null, 0, 0);
+        return clientId;
+    }
+
+    public synchronized void recordData(int clientId, ByteBuffer data, int offset, int length) {
+        writeRecord(RECORD_DATA, clientId, data, offset, length);
+    }
+
+    public synchronized void recordDisconnect(int clientId) {
+        writeRecord(RECORD_DISCONNECT, clientId, null, 0, 0);
+    }
+
+    private void writeRecord(byte type, int clientId, ByteBuffer data, int offset, int length) {
+        if (closed) return;
+        try {
+            outputStream.writeByte(type);
+            outputStream.writeInt(clientId);
+            outputStream.writeLong(System.nanoTime() - startTime);
+            outputStream.writeInt(length);
+
+            if (length > 0) {
+                if (copyBuffer.length < length) copyBuffer = new byte[Integer.highestOneBit(length) << 1];
+                ByteBuffer src = data.duplicate();
+                src.limit(offset + length).position(offset);
+                src.get(copyBuffer, 0, length);
+                outputStream.write(copyBuffer, 0, length);
+            }
+        }
+        catch (IOException e) {
+            Log.e("XStreamRecorder", "Failed to write capture record, recording stopped.", e);
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            outputStream.close();
+        }
+        catch (IOException e) {}
+    }
+}
@@ -1,16 +1,27 @@
 package com.winlator.cmod.xenvironment.components;
 
+import android.util.Log;
+
 import com.winlator.cmod.xenvironment.EnvironmentComponent;
 import com.winlator.cmod.xconnector.XConnectorEpoll;
 import com.winlator.cmod.xconnector.UnixSocketConfig;
+import com.winlator.cmod.xconnector.XStreamRecorder;
 import com.winlator.cmod.xserver.XClientConnectionHandler;
 import com.winlator.cmod.xserver.XClientRequestHandler;
 import com.winlator.cmod.xserver.XServer;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
 public class XServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
+    private File captureFile;
+    private XStreamRecorder recorder;
+    private File statisticsFile;
+    private int dispatchThreads = 0;
 
     public XServerComponent(XServer xServer, UnixSocketConfig socketConfig) {
         this.xServer = xServer;
@@ -23,6 +34,24 @@ public class XServerComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
+        connector.setDeferredFlushes(true);
+        connector.setEdgeTriggered(true);
+        connector.setMaxRequestsPerPass(512);
+        connector.setMaxBytesPerPass(1048576);
+        connector.setDispatchThreads(dispatchThreads);
+
+        if (captureFile != null) {
+            try {
+                recorder = new XStreamRecorder(captureFile);
+                connector.setRecorder(recorder);
+            }
+            catch (IOException e) {
+                Log.e("XServerComponent", "Failed to create capture file "+captureFile, e);
+            }
+        }
+
+        if (statisticsFile != null) xServer.requestStatistics.setEnabled(true);
+
         connector.start();
     }
 
@@ -32,6 +61,44 @@ public class XServerComponent extends EnvironmentComponent {
             connector.stop();
             connector = null;
         }
+
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+        }
+
+        if (statisticsFile != null && xServer.requestStatistics.isEnabled()) {
+            try (PrintWriter writer = new PrintWriter(statisticsFile)) {
+                xServer.requestStatistics.dump(writer);
+            }
+            catch (IOException e) {
+                Log.e("XServerComponent", "Failed to write request statistics to "+statisticsFile, e);
+            }
+        }
+    }
+
+    public File getCaptureFile() {
+        return captureFile;
+    }
+
+    public void setCaptureFile(File captureFile) {
+        this.captureFile = captureFile;
+    }
+
+    public File getStatisticsFile() {
+        return statisticsFile;
+    }
+
+    public void setStatisticsFile(File statisticsFile) {
+        this.statisticsFile = statisticsFile;
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
     }
 
     public XServer getXServer() {
@@ -4,17 +4,14 @@ public class Cursor extends XResource {
     public final int hotSpotX;
     public final int hotSpotY;
     public final Drawable cursorImage;
-    public final Drawable sourceImage;
-    public final Drawable maskImage;
     private boolean visible = true;
+    CursorManager.CursorImage image;
 
-    public Cursor(int id, int hotSpotX, int hotSpotY, Drawable cursorImage, Drawable sourceImage, Drawable maskImage) {
+    public Cursor(int id, int hotSpotX, int hotSpotY, Drawable cursorImage) {
         super(id);
         this.hotSpotX = hotSpotX;
         this.hotSpotY = hotSpotY;
         this.cursorImage = cursorImage;
-        this.sourceImage = sourceImage;
-        this.maskImage = maskImage;
     }
 
     public boolean isVisible() {
@@ -1,52 +1,176 @@
 package com.winlator.cmod.xserver;
 
+import android.util.LongSparseArray;
 import android.util.SparseArray;
 
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 
-public class CursorManager extends XResourceManager {
+public class CursorManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
+    private static final int MAX_UNUSED_IMAGES = 16;
     private final SparseArray<Cursor> cursors = new SparseArray<>();
+    private final LongSparseArray<CursorImage> images = new LongSparseArray<>();
+    private final ArrayDeque<CursorImage> unusedImages = new ArrayDeque<>();
     private final DrawableManager drawableManager;
 
-    public CursorManager(DrawableManager drawableManager) {
+    /* Cursors created from the same pixels, hotspot and colors share one drawable and therefore one texture,
+     * refCount counts the cursors using the image plus the windows whose cursor attribute points at one of them */
+    static class CursorImage {
+        private final long hash;
+        private final short hotSpotX;
+        private final short hotSpotY;
+        private final int foreColor;
+        private final int backColor;
+        private final int[] sourceData;
+        private final int[] maskData;
+        private final Drawable drawable;
+        private boolean visible = true;
+        private int refCount = 0;
+        private CursorImage next;
+
+        private CursorImage(long hash, short hotSpotX, short hotSpotY, int foreColor, int backColor, int[] sourceData, int[] maskData, Drawable drawable) {
+            this.hash = hash;
+            this.hotSpotX = hotSpotX;
+            this.hotSpotY = hotSpotY;
+            this.foreColor = foreColor;
+            this.backColor = backColor;
+            this.sourceData = sourceData;
+            this.maskData = maskData;
+            this.drawable = drawable;
+        }
+    }
+
+    public CursorManager(DrawableManager drawableManager, WindowManager windowManager) {
         this.drawableManager = drawableManager;
+        windowManager.addOnResourceLifecycleListener(this);
     }
 
     public Cursor getCursor(int id) {
         return cursors.get(id);
     }
 
-    public Cursor createCursor(int id, short x, short y, Pixmap sourcePixmap, Pixmap maskPixmap) {
+    public Cursor createCursor(int id, short x, short y, Pixmap sourcePixmap, Pixmap maskPixmap, byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue) {
         if (cursors.indexOfKey(id) >= 0) return null;
-        Drawable drawable = drawableManager.createDrawable(0, sourcePixmap.drawable.width, sourcePixmap.drawable.height, sourcePixmap.drawable.visual);
-        Cursor cursor = new Cursor(id, x, y, drawable, sourcePixmap.drawable, maskPixmap != null ? maskPixmap.drawable : null);
+
+        Drawable sourceImage = sourcePixmap.drawable;
+        Drawable maskImage = maskPixmap != null ? maskPixmap.drawable : null;
+        int foreColor = packColor(foreRed, foreGreen, foreBlue);
+        int backColor = packColor(backRed, backGreen, backBlue);
+        int length = sourceImage.width * sourceImage.height;
+
+        long hash = 0xcbf29ce484222325L;
+        hash = mixHash(hash, (sourceImage.width << 16) | (sourceImage.height & 0xffff));
+        hash = mixHash(hash, (x << 16) | (y & 0xffff));
+        hash = mixHash(hash, foreColor);
+        hash = mixHash(hash, backColor);
+        hash = hashData(hash, sourceImage.getData(), length);
+        if (maskImage != null) hash = hashData(hash, maskImage.getData(), length);
+
+        CursorImage image = images.get(hash);
+        while (image != null && !matches(image, sourceImage, maskImage, x, y, foreColor, backColor)) image = image.next;
+
+        if (image == null) {
+            Drawable drawable = drawableManager.createDrawable(0, sourceImage.width, sourceImage.height, sourceImage.visual);
+            image = new CursorImage(hash, x, y, foreColor, backColor, copyData(sourceImage.getData(), length), maskImage != null ? copyData(maskImage.getData(), length) : null, drawable);
+            if (maskImage != null) {
+                image.visible = !isEmptyMaskImage(maskImage);
+                if (image.visible) drawable.drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, sourceImage, maskImage);
+            }
+            image.next = images.get(hash);
+            images.put(hash, image);
+        }
+        else if (image.refCount == 0) unusedImages.remove(image);
+
+        image.refCount++;
+        Cursor cursor = new Cursor(id, x, y, image.drawable);
+        cursor.image = image;
+        cursor.setVisible(image.visible);
         cursors.put(id, cursor);
         triggerOnCreateResourceListener(cursor);
         return cursor;
     }
 
     public void freeCursor(int id) {
-        triggerOnFreeResourceListener(cursors.get(id));
+        Cursor cursor = cursors.get(id);
+        triggerOnFreeResourceListener(cursor);
         cursors.remove(id);
+        if (cursor != null) releaseImage(cursor.image);
     }
 
-    private static boolean isEmptyMaskImage(Drawable maskImage) {
-        IntBuffer maskData = maskImage.getData().asIntBuffer();
-        boolean result = true;
-        for (int i = 0; i < maskData.capacity(); i++) {
-            if (maskData.get(i) != 0x000000) {
-                result = false;
-                break;
+    void retainCursor(Cursor cursor) {
+        if (cursor.image.refCount++ == 0) unusedImages.remove(cursor.image);
+    }
+
+    void releaseCursor(Cursor cursor) {
+        releaseImage(cursor.image);
+    }
+
+    @Override
+    public void onFreeResource(XResource resource) {
+        if (resource instanceof Window) ((Window)resource).attributes.setCursor(this, null);
+    }
+
+    private void releaseImage(CursorImage image) {
+        if (--image.refCount > 0) return;
+
+        unusedImages.add(image);
+        if (unusedImages.size() > MAX_UNUSED_IMAGES) removeImage(unusedImages.poll());
+    }
+
+    private void removeImage(CursorImage image) {
+        CursorImage head = images.get(image.hash);
+        if (head == image) {
+            if (image.next != null) {
+                images.put(image.hash, image.next);
             }
+            else images.remove(image.hash);
         }
+        else {
+            while (head.next != image) head = head.next;
+            head.next = image.next;
+        }
+        drawableManager.releaseDrawable(image.drawable);
+    }
+
+    private static boolean matches(CursorImage image, Drawable sourceImage, Drawable maskImage, short x, short y, int foreColor, int backColor) {
+        Drawable drawable = image.drawable;
+        if (drawable.width != sourceImage.width || drawable.height != sourceImage.height) return false;
+        if (image.hotSpotX != x || image.hotSpotY != y || image.foreColor != foreColor || image.backColor != backColor) return false;
+        if ((image.maskData != null) != (maskImage != null)) return false;
+        return equalsData(image.sourceData, sourceImage.getData()) && (maskImage == null || equalsData(image.maskData, maskImage.getData()));
+    }
+
+    private static int packColor(byte red, byte green, byte blue) {
+        return ((red & 0xff) << 16) | ((green & 0xff) << 8) | (blue & 0xff);
+    }
+
+    private static long mixHash(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    private static long hashData(long hash, ByteBuffer data, int length) {
+        for (int i = 0; i < length; i++) hash = mixHash(hash, data.getInt(i * 4));
+        return hash;
+    }
+
+    private static int[] copyData(ByteBuffer data, int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) result[i] = data.getInt(i * 4);
         return result;
     }
 
-    public void recolorCursor(Cursor cursor, byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue) {
-        if (cursor.maskImage != null) {
-            boolean visible = !isEmptyMaskImage(cursor.maskImage);
-            cursor.setVisible(visible);
-            if (visible) cursor.cursorImage.drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, cursor.sourceImage, cursor.maskImage);
+    private static boolean equalsData(int[] values, ByteBuffer data) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != data.getInt(i * 4)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isEmptyMaskImage(Drawable maskImage) {
+        ByteBuffer maskData = maskImage.getData();
+        for (int i = 0, length = maskImage.width * maskImage.height; i < length; i++) {
+            if (maskData.getInt(i * 4) != 0x000000) return false;
         }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package com.winlator.cmod.xserver;
 import android.graphics.Bitmap;
 
 import com.winlator.cmod.core.Callback;
+import com.winlator.cmod.core.DirectBufferPool;
 import com.winlator.cmod.math.Mathf;
 import com.winlator.cmod.renderer.GPUImage;
 import com.winlator.cmod.renderer.Texture;
@@ -11,12 +12,17 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class Drawable extends XResource {
+    public enum PolyShape {LINE, FILL_RECTANGLE}
+    private static final byte[] ZEROS = new byte[4096];
     public final short width;
     public final short height;
     public final Visual visual;
     private Texture texture = new Texture();
     private ByteBuffer data;
+    private boolean pooledData;
     private Runnable onDrawListener;
+    private volatile Drawable presentedDrawable;
+    private Runnable onUnflipListener;
     private Callback<Drawable> onDestroyListener;
     public final Object renderLock = new Object();
 
@@ -29,7 +35,11 @@ public class Drawable extends XResource {
         this.width = (short)width;
         this.height = (short)height;
         this.visual = visual;
-        this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        if (id != 0) {
+            this.data = DirectBufferPool.getInstance().acquire(width * height * 4, true).order(ByteOrder.LITTLE_ENDIAN);
+            pooledData = true;
+        }
+        else this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
         if (this.data == null) {
             throw new IllegalStateException("Drawable.data initialized as null!");
         }
@@ -46,7 +56,10 @@ public class Drawable extends XResource {
     }
 
     public void setTexture(Texture texture) {
-        if (texture instanceof GPUImage) data = ((GPUImage)texture).getVirtualData();
+        if (texture instanceof GPUImage) {
+            releaseData();
+            data = ((GPUImage)texture).getVirtualData();
+        }
         this.texture = texture;
     }
 
@@ -58,13 +71,37 @@ public class Drawable extends XResource {
         if (data == null) {
             throw new IllegalArgumentException("Attempting to set Drawable.data to null!");
         }
+        releaseData();
         this.data = data;
     }
 
+    public void releaseData() {
+        if (pooledData) {
+            DirectBufferPool.getInstance().release(data);
+            pooledData = false;
+        }
+    }
+
     private short getStride() {
         return texture instanceof GPUImage ? ((GPUImage)texture).getStride() : width;
     }
 
+    public Drawable getPresentedDrawable() {
+        return presentedDrawable;
+    }
+
+    /* A pixmap flipped onto this window content by the Present extension, rendered in place of this drawable
+     * until a core request reads or draws the content, which runs onUnflipListener first to copy it back */
+    public void setPresentedDrawable(Drawable presentedDrawable, Runnable onUnflipListener) {
+        this.presentedDrawable = presentedDrawable;
+        this.onUnflipListener = onUnflipListener;
+    }
+
+    private void unflip() {
+        Runnable onUnflipListener = this.onUnflipListener;
+        if (presentedDrawable != null && onUnflipListener != null) onUnflipListener.run();
+    }
+
     public Runnable getOnDrawListener() {
         return onDrawListener;
     }
@@ -82,8 +119,10 @@ public class Drawable extends XResource {
     }
 
     public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
+        unflip();
         if (depth == 1) {
             drawBitmap(width, height, data, this.data);
+            damage(0, 0, width, height);
         }
         else if (depth == 24 || depth == 32) {
             dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
@@ -92,28 +131,68 @@ public class Drawable extends XResource {
             if ((dstY + height) > this.height) height = (short)((this.height - dstY));
 
             copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+            damage(dstX, dstY, width, height);
         }
 
         this.data.rewind();
         data.rewind();
 
-        texture.setNeedsUpdate(true);
         if (onDrawListener != null) onDrawListener.run();
     }
 
-    public ByteBuffer getImage(short x, short y, short width, short height) {
-        ByteBuffer dstData = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+    public void drawImageRows(short dstX, int dstY, short width, int rows, ByteBuffer data, boolean lastRows) {
+        unflip();
+        int srcY = 0;
+        if (dstY < 0) {
+            srcY = -dstY;
+            rows += dstY;
+            dstY = 0;
+        }
+        if ((dstY + rows) > this.height) rows = this.height - dstY;
+
+        short totalWidth = width;
+        dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
+        if ((dstX + width) > this.width) width = (short)(this.width - dstX);
+
+        if (rows > 0) {
+            copyArea((short)0, (short)srcY, dstX, (short)dstY, width, (short)rows, totalWidth, this.getStride(), data, this.data);
+            damage(dstX, dstY, width, rows);
+        }
+
+        this.data.rewind();
+        data.rewind();
 
+        if (lastRows && onDrawListener != null) onDrawListener.run();
+    }
+
+    public void getImage(short x, short y, short width, short height, ByteBuffer dstData) {
+        unflip();
+        short dstStride = width;
         x = (short)Mathf.clamp(x, 0, this.width-1);
         y = (short)Mathf.clamp(y, 0, this.height-1);
         if ((x + width) > this.width) width = (short)(this.width - x);
         if ((y + height) > this.height) height = (short)(this.height - y);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+        int rowBytes = dstStride * 4;
+        int copiedRows = width > 0 ? Math.max(height, 0) : 0;
+        if (copiedRows > 0 && width < dstStride) {
+            int marginOffset = width * 4;
+            for (int row = 0; row < copiedRows; row++) zeroFill(dstData, row * rowBytes + marginOffset, rowBytes - marginOffset);
+        }
+        zeroFill(dstData, copiedRows * rowBytes, dstData.capacity() - copiedRows * rowBytes);
+        dstData.rewind();
 
+        if (copiedRows > 0) copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), dstStride, this.data, dstData);
         this.data.rewind();
-        dstData.rewind();
-        return dstData;
+    }
+
+    private static void zeroFill(ByteBuffer data, int offset, int length) {
+        data.position(offset);
+        while (length > 0) {
+            int count = Math.min(length, ZEROS.length);
+            data.put(ZEROS, 0, count);
+            length -= count;
+        }
     }
 
     public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, Drawable drawable) {
@@ -121,6 +200,8 @@ public class Drawable extends XResource {
     }
 
     public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, Drawable drawable, GraphicsContext.Function gcFunction) {
+        unflip();
+        drawable.unflip();
         dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
         dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
         if ((dstX + width) > this.width) width = (short)(this.width - dstX);
@@ -134,7 +215,7 @@ public class Drawable extends XResource {
         this.data.rewind();
         drawable.data.rewind();
 
-        texture.setNeedsUpdate(true);
+        damage(dstX, dstY, width, height);
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -143,6 +224,7 @@ public class Drawable extends XResource {
     }
 
     public void fillRect(int x, int y, int width, int height, int color) {
+        unflip();
         x = (short)Mathf.clamp(x, 0, this.width-1);
         y = (short)Mathf.clamp(y, 0, this.height-1);
         if ((x + width) > this.width) width = (short)((this.width - x));
@@ -151,7 +233,7 @@ public class Drawable extends XResource {
         fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
         this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+        damage(x, y, width, height);
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -162,6 +244,7 @@ public class Drawable extends XResource {
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int color, int lineWidth) {
+        unflip();
         x0 = Mathf.clamp(x0, 0, width-lineWidth);
         y0 = Mathf.clamp(y0, 0, height-lineWidth);
         x1 = Mathf.clamp(x1, 0, width-lineWidth);
@@ -171,7 +254,21 @@ public class Drawable extends XResource {
 
         this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+        damage(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0) + lineWidth, Math.abs(y1 - y0) + lineWidth);
+        if (onDrawListener != null) onDrawListener.run();
+    }
+
+    public void drawPoly(PolyShape shape, ByteBuffer items, int count, int color, int lineWidth) {
+        if (count <= 0) return;
+        unflip();
+        boolean swapBytes = items.order() != ByteOrder.nativeOrder();
+        long bounds = drawPoly(shape.ordinal(), items, count, swapBytes, color, (short)lineWidth, width, height, this.getStride(), this.data);
+        this.data.rewind();
+        if (bounds == 0) return;
+
+        int x0 = (int)(bounds & 0xffff);
+        int y0 = (int)((bounds >> 16) & 0xffff);
+        damage(x0, y0, (int)((bounds >> 32) & 0xffff) - x0, (int)((bounds >> 48) & 0xffff) - y0);
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -179,10 +276,18 @@ public class Drawable extends XResource {
         drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
         this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+        damage(0, 0, width, height);
         if (onDrawListener != null) onDrawListener.run();
     }
 
+    private void damage(int x, int y, int width, int height) {
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        x = Math.max(x, 0);
+        y = Math.max(y, 0);
+        if (x < x1 && y < y1) texture.addDamage(x, y, x1 - x, y1 - y);
+    }
+
     private static native void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData);
 
     private static native void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData);
@@ -195,6 +300,8 @@ public class Drawable extends XResource {
 
     private static native void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data);
 
+    private static native long drawPoly(int shape, ByteBuffer items, int count, boolean swapBytes, int color, short lineWidth, short width, short height, short stride, ByteBuffer data);
+
     private static native void fromBitmap(Bitmap bitmap, ByteBuffer data);
 }
 
@@ -3,11 +3,16 @@ package com.winlator.cmod.xserver;
 import android.util.SparseArray;
 
 import com.winlator.cmod.core.Callback;
+import com.winlator.cmod.renderer.GLRenderer;
 import com.winlator.cmod.renderer.Texture;
+import com.winlator.cmod.renderer.TexturePool;
+
+import java.util.ArrayList;
 
 public class DrawableManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
     private final XServer xServer;
     private final SparseArray<Drawable> drawables = new SparseArray<>();
+    private ArrayList<Drawable> bulkRemovedDrawables;
 
     public DrawableManager(XServer xServer) {
         this.xServer = xServer;
@@ -53,8 +58,7 @@ public class DrawableManager extends XResourceManager implements XResourceManage
             throw new IllegalStateException("Drawable with id " + id + " has null data during removal.");
         }
 
-        final Texture texture = drawable.getTexture();
-        if (texture != null) xServer.getRenderer().xServerView.queueEvent(texture::destroy);
+        releaseDrawable(drawable);
 
         Callback<Drawable> onDestroyListener = drawable.getOnDestroyListener();
         if (onDestroyListener != null) onDestroyListener.call(drawable);
@@ -64,6 +68,48 @@ public class DrawableManager extends XResourceManager implements XResourceManage
     }
 
 
+    /* Also used for drawables created with id 0, which are not tracked by the manager */
+    public void releaseDrawable(Drawable drawable) {
+        final Texture texture = drawable.getTexture();
+        GLRenderer renderer = xServer.getRenderer();
+        if (bulkRemovedDrawables != null) {
+            bulkRemovedDrawables.add(drawable);
+        }
+        else if (renderer != null) {
+            renderer.xServerView.queueEvent(() -> {
+                releaseTexture(texture, drawable);
+                drawable.releaseData();
+            });
+        }
+        else drawable.releaseData();
+    }
+
+    /* Collects the drawables removed until endBulkRemoval so their textures are released in a single renderer event */
+    public void beginBulkRemoval() {
+        if (bulkRemovedDrawables == null) bulkRemovedDrawables = new ArrayList<>();
+    }
+
+    public void endBulkRemoval() {
+        final ArrayList<Drawable> removedDrawables = bulkRemovedDrawables;
+        bulkRemovedDrawables = null;
+        if (removedDrawables == null || removedDrawables.isEmpty()) return;
+
+        GLRenderer renderer = xServer.getRenderer();
+        if (renderer != null) {
+            renderer.xServerView.queueEvent(() -> {
+                for (Drawable drawable : removedDrawables) {
+                    releaseTexture(drawable.getTexture(), drawable);
+                    drawable.releaseData();
+                }
+            });
+        }
+        else for (Drawable drawable : removedDrawables) drawable.releaseData();
+    }
+
+    private static void releaseTexture(Texture texture, Drawable drawable) {
+        if (texture != null && !TexturePool.getInstance().recycle(texture, drawable.width, drawable.height)) texture.destroy();
+    }
+
     @Override
     public void onFreeResource(XResource resource) {
         if (resource instanceof Pixmap) {
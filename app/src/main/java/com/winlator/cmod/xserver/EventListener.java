@@ -1,6 +1,7 @@
 package com.winlator.cmod.xserver;
 
 import com.winlator.cmod.xserver.events.Event;
+import com.winlator.cmod.xserver.events.MotionNotify;
 
 import java.io.IOException;
 
@@ -29,4 +30,10 @@ public class EventListener {
             e.printStackTrace();
         }
     }
+
+    public void sendMotionNotify(MotionNotify event) {
+        boolean hint = eventMask.isSet(Event.POINTER_MOTION_HINT);
+        if (hint && !client.acquireMotionHint(event.getEventWindowId())) return;
+        client.sendMotionNotify(event, hint);
+    }
 }
@@ -17,6 +17,13 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     private static final byte MOUSE_WHEEL_DELTA = 120;
     private Window pointWindow;
     private final XServer xServer;
+    /* Input events are encoded into the client output streams synchronously under the INPUT_DEVICE lock, so a single instance per type is reused */
+    private final MotionNotify motionNotify = new MotionNotify();
+    private final ButtonPress buttonPress = new ButtonPress();
+    private final ButtonRelease buttonRelease = new ButtonRelease();
+    private final KeyPress keyPress = new KeyPress();
+    private final KeyRelease keyRelease = new KeyRelease();
+    private volatile int motionHintGeneration = 0;
 
     public InputDeviceManager(XServer xServer) {
         this.xServer = xServer;
@@ -59,7 +66,13 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     private void updatePointWindow() {
         Window pointWindow = xServer.windowManager.findPointWindow(xServer.pointer.getClampedX(), xServer.pointer.getClampedY());
-        this.pointWindow = pointWindow != null ? pointWindow : xServer.windowManager.rootWindow;
+        if (pointWindow == null) pointWindow = xServer.windowManager.rootWindow;
+        if (pointWindow != this.pointWindow) motionHintGeneration++;
+        this.pointWindow = pointWindow;
+    }
+
+    public int getMotionHintGeneration() {
+        return motionHintGeneration;
     }
 
     public Window getPointWindow() {
@@ -82,19 +95,19 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         }
     }
 
-    private void sendEvent(Window window, Bitmask eventMask, Event event) {
+    private void sendMotionNotify(Window window, int eventMask) {
         Window grabWindow = xServer.grabManager.getWindow();
         if (grabWindow != null && grabWindow.attributes.isEnabled()) {
             EventListener eventListener = xServer.grabManager.getEventListener();
             if (xServer.grabManager.isOwnerEvents() && window != null) {
-                window.sendEvent(eventMask, event, eventListener.client);
+                window.sendMotionNotify(eventMask, motionNotify, xServer.grabManager.getClient());
             }
             else if (eventListener.isInterestedIn(eventMask)) {
-                eventListener.sendEvent(event);
+                eventListener.sendMotionNotify(motionNotify);
             }
         }
         else if (window != null && window.attributes.isEnabled()) {
-            window.sendEvent(eventMask, event);
+            window.sendMotionNotify(eventMask, motionNotify, null);
         }
     }
 
@@ -126,6 +139,7 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onPointerButtonPress(Pointer.Button button) {
+        motionHintGeneration++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             int wheelDelta = button == Pointer.Button.BUTTON_SCROLL_UP ? MOUSE_WHEEL_DELTA : (button == Pointer.Button.BUTTON_SCROLL_DOWN ? -MOUSE_WHEEL_DELTA : 0);
@@ -139,27 +153,29 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
             }
 
             if (grabWindow != null && grabWindow.attributes.isEnabled()) {
-                Bitmask eventMask = createPointerEventMask();
-                eventMask.unset(button.flag());
+                int eventMask = createPointerEventMask() & ~button.flag();
 
                 short x = xServer.pointer.getX();
                 short y = xServer.pointer.getY();
-                short[] localPoint = grabWindow.rootPointToLocal(x, y);
+                short localX = (short)(x - grabWindow.getRootX());
+                short localY = (short)(y - grabWindow.getRootY());
 
-                Window child = grabWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-                grabWindow.sendEvent(Event.BUTTON_PRESS, new ButtonPress(button.code(), xServer.windowManager.rootWindow, grabWindow, child, x, y, localPoint[0], localPoint[1], eventMask));
+                int childId = grabWindow.isAncestorOf(pointWindow) ? pointWindow.id : 0;
+                buttonPress.set(button.code(), xServer.windowManager.rootWindow.id, grabWindow.id, childId, x, y, localX, localY, eventMask);
+                grabWindow.sendEvent(Event.BUTTON_PRESS, buttonPress);
             }
         }
     }
 
     @Override
     public void onPointerButtonRelease(Pointer.Button button) {
+        motionHintGeneration++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             winHandler.mouseEvent(MouseEventFlags.getFlagFor(button, false), 0, 0, 0);
         }
         else {
-            Bitmask eventMask = createPointerEventMask();
+            int eventMask = createPointerEventMask();
             Window grabWindow = xServer.grabManager.getWindow();
             Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
 
@@ -168,10 +184,11 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
                 short x = xServer.pointer.getX();
                 short y = xServer.pointer.getY();
-                short[] localPoint = eventWindow.rootPointToLocal(x, y);
+                short localX = (short)(x - eventWindow.getRootX());
+                short localY = (short)(y - eventWindow.getRootY());
 
-                Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-                ButtonRelease buttonRelease = new ButtonRelease(button.code(), xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], eventMask);
+                int childId = eventWindow.isAncestorOf(pointWindow) ? pointWindow.id : 0;
+                buttonRelease.set(button.code(), xServer.windowManager.rootWindow.id, eventWindow.id, childId, x, y, localX, localY, eventMask);
                 sendEvent(window, eventMask, buttonRelease);
             }
 
@@ -184,30 +201,33 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     @Override
     public void onPointerMove(short x, short y) {
         updatePointWindow();
-        Bitmask eventMask = createPointerEventMask();
+        int eventMask = createPointerEventMask();
         Window grabWindow = xServer.grabManager.getWindow();
         Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
 
         if (grabWindow != null || window != null) {
             Window eventWindow = window != null ? window : grabWindow;
-            short[] localPoint = eventWindow.rootPointToLocal(x, y);
+            short localX = (short)(x - eventWindow.getRootX());
+            short localY = (short)(y - eventWindow.getRootY());
 
-            Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-            sendEvent(window, eventMask, new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
+            int childId = eventWindow.isAncestorOf(pointWindow) ? pointWindow.id : 0;
+            motionNotify.set((byte)0, xServer.windowManager.rootWindow.id, eventWindow.id, childId, x, y, localX, localY, getKeyButMaskBits());
+            sendMotionNotify(window, eventMask);
         }
     }
 
     @Override
     public void onKeyPress(byte keycode, int keysym) {
+        motionHintGeneration++;
         Window focusedWindow = xServer.windowManager.getFocusedWindow();
         if (focusedWindow == null) return;
         updatePointWindow();
 
         Window eventWindow = null;
-        Window child = null;
+        int childId = 0;
         if (focusedWindow.isAncestorOf(pointWindow)) {
             eventWindow = pointWindow.getAncestorWithEventId(Event.KEY_PRESS, focusedWindow);
-            child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
+            childId = eventWindow != null && eventWindow.isAncestorOf(pointWindow) ? pointWindow.id : 0;
         }
         if (eventWindow == null) {
             if (!focusedWindow.hasEventListenerFor(Event.KEY_PRESS)) return;
@@ -216,30 +236,33 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
         if (!eventWindow.attributes.isEnabled()) return;
 
-        Bitmask keyButMask = getKeyButMask();
+        int keyButMask = getKeyButMaskBits();
         short x = xServer.pointer.getX();
         short y = xServer.pointer.getY();
-        short[] localPoint = eventWindow.rootPointToLocal(x, y);
+        short localX = (short)(x - eventWindow.getRootX());
+        short localY = (short)(y - eventWindow.getRootY());
 
         if (keysym != 0 && !xServer.keyboard.hasKeysym(keycode, keysym)) {
             xServer.keyboard.setKeysyms(keycode, keysym, keysym);
             eventWindow.sendEvent(new MappingNotify(MappingNotify.Request.KEYBOARD, keycode, 1));
         }
 
-        eventWindow.sendEvent(Event.KEY_PRESS, new KeyPress(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], keyButMask));
+        keyPress.set(keycode, xServer.windowManager.rootWindow.id, eventWindow.id, childId, x, y, localX, localY, keyButMask);
+        eventWindow.sendEvent(Event.KEY_PRESS, keyPress);
     }
 
     @Override
     public void onKeyRelease(byte keycode) {
+        motionHintGeneration++;
         Window focusedWindow = xServer.windowManager.getFocusedWindow();
         if (focusedWindow == null) return;
         updatePointWindow();
 
         Window eventWindow = null;
-        Window child = null;
+        int childId = 0;
         if (focusedWindow.isAncestorOf(pointWindow)) {
             eventWindow = pointWindow.getAncestorWithEventId(Event.KEY_RELEASE, focusedWindow);
-            child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
+            childId = eventWindow != null && eventWindow.isAncestorOf(pointWindow) ? pointWindow.id : 0;
         }
         if (eventWindow == null) {
             if (!focusedWindow.hasEventListenerFor(Event.KEY_RELEASE)) return;
@@ -248,45 +271,47 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
         if (!eventWindow.attributes.isEnabled()) return;
 
-        Bitmask keyButMask = getKeyButMask();
+        int keyButMask = getKeyButMaskBits();
         short x = xServer.pointer.getX();
         short y = xServer.pointer.getY();
-        short[] localPoint = eventWindow.rootPointToLocal(x, y);
+        short localX = (short)(x - eventWindow.getRootX());
+        short localY = (short)(y - eventWindow.getRootY());
 
-        eventWindow.sendEvent(Event.KEY_RELEASE, new KeyRelease(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], keyButMask));
+        keyRelease.set(keycode, xServer.windowManager.rootWindow.id, eventWindow.id, childId, x, y, localX, localY, keyButMask);
+        eventWindow.sendEvent(Event.KEY_RELEASE, keyRelease);
     }
 
-    private Bitmask createPointerEventMask() {
-        Bitmask eventMask = new Bitmask();
-        eventMask.set(Event.POINTER_MOTION);
+    private int createPointerEventMask() {
+        int eventMask = Event.POINTER_MOTION;
 
         Bitmask buttonMask = xServer.pointer.getButtonMask();
         if (!buttonMask.isEmpty()) {
-            eventMask.set(Event.BUTTON_MOTION);
+            eventMask |= Event.BUTTON_MOTION;
 
             if (buttonMask.isSet(Pointer.Button.BUTTON_LEFT.flag())) {
-                eventMask.set(Event.BUTTON1_MOTION);
+                eventMask |= Event.BUTTON1_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_MIDDLE.flag())) {
-                eventMask.set(Event.BUTTON2_MOTION);
+                eventMask |= Event.BUTTON2_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_RIGHT.flag())) {
-                eventMask.set(Event.BUTTON3_MOTION);
+                eventMask |= Event.BUTTON3_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_SCROLL_UP.flag())) {
-                eventMask.set(Event.BUTTON4_MOTION);
+                eventMask |= Event.BUTTON4_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_SCROLL_DOWN.flag())) {
-                eventMask.set(Event.BUTTON5_MOTION);
+                eventMask |= Event.BUTTON5_MOTION;
             }
         }
         return eventMask;
     }
 
     public Bitmask getKeyButMask() {
-        Bitmask keyButMask = new Bitmask();
-        keyButMask.join(xServer.pointer.getButtonMask());
-        keyButMask.join(xServer.keyboard.getModifiersMask());
-        return keyButMask;
+        return new Bitmask(getKeyButMaskBits());
+    }
+
+    public int getKeyButMaskBits() {
+        return xServer.pointer.getButtonMask().getBits() | xServer.keyboard.getModifiersMask().getBits();
     }
 }
@@ -2,12 +2,12 @@ package com.winlator.cmod.xserver;
 
 import androidx.annotation.NonNull;
 
-import com.winlator.cmod.core.ArrayUtils;
 import com.winlator.cmod.core.StringUtils;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class Property {
     public enum Mode {REPLACE, PREPEND, APPEND}
@@ -32,6 +32,9 @@ public class Property {
     public final int type;
     public final Format format;
     public ByteBuffer data;
+    private byte[] buffer;
+    private int start;
+    private int size;
 
     public Property(int name, int type, Format format, byte[] data) {
         this.name = name;
@@ -41,50 +44,83 @@ public class Property {
     }
 
     public void replace(byte[] data) {
-        this.data = ByteBuffer.wrap(data != null ? data : new byte[0]).order(ByteOrder.LITTLE_ENDIAN);
+        buffer = data != null ? data : new byte[0];
+        start = 0;
+        size = buffer.length;
+        updateData();
     }
 
     public void prepend(byte[] values) {
-        replace(ArrayUtils.concat(values, this.data.array()));
+        reserve(values.length, 0);
+        start -= values.length;
+        size += values.length;
+        System.arraycopy(values, 0, buffer, start, values.length);
+        updateData();
     }
 
     public void append(byte[] values) {
-        replace(ArrayUtils.concat(this.data.array(), values));
+        reserve(0, values.length);
+        System.arraycopy(values, 0, buffer, start + size, values.length);
+        size += values.length;
+        updateData();
+    }
+
+    private void reserve(int headRoom, int tailRoom) {
+        int currentTailRoom = buffer.length - start - size;
+        if (start >= headRoom && currentTailRoom >= tailRoom) return;
+
+        int newStart = start < headRoom ? headRoom + size : start;
+        int newTailRoom = currentTailRoom < tailRoom ? tailRoom + size : currentTailRoom;
+        byte[] newBuffer = new byte[newStart + size + newTailRoom];
+        System.arraycopy(buffer, start, newBuffer, newStart, size);
+        buffer = newBuffer;
+        start = newStart;
+    }
+
+    private void updateData() {
+        data = ByteBuffer.wrap(buffer, start, size).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int size() {
+        return size;
     }
 
     @NonNull
     @Override
     public String toString() {
         String type = Atom.getName(this.type);
-        data.rewind();
-        switch (type) {
+        switch (type != null ? type : "") {
             case "UTF8_STRING":
-                return StringUtils.fromANSIString(data.array(), StandardCharsets.UTF_8);
+                return StringUtils.fromANSIString(toByteArray(), StandardCharsets.UTF_8);
             case "STRING":
-                return StringUtils.fromANSIString(data.array(), XServer.LATIN1_CHARSET);
+                return StringUtils.fromANSIString(toByteArray(), XServer.LATIN1_CHARSET);
             case "ATOM":
                 return Atom.getName(data.getInt(0));
             default:
                 StringBuilder sb = new StringBuilder();
-                for (int i = 0, size = data.capacity() / (format.value >> 3); i < size; i++) {
+                int unitSize = format.value >> 3;
+                for (int i = 0, count = size / unitSize; i < count; i++) {
                     if (i > 0) sb.append(",");
                     switch (format) {
                         case BYTE_ARRAY:
-                            sb.append(data.get());
+                            sb.append(data.get(i));
                             break;
                         case SHORT_ARRAY:
-                            sb.append(data.getShort());
+                            sb.append(data.getShort(i * unitSize));
                             break;
                         case INT_ARRAY:
-                            sb.append(data.getInt());
+                            sb.append(data.getInt(i * unitSize));
                             break;
                     }
                 }
-                data.rewind();
                 return sb.toString();
         }
     }
 
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer, start, start + size);
+    }
+
     public int getInt(int index) {
         return data.getInt(index * 4);
     }
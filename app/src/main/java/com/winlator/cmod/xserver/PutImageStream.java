@@ -0,0 +1,119 @@
+package com.winlator.cmod.xserver;
+
+import com.winlator.cmod.xconnector.XInputStream;
+import com.winlator.cmod.xserver.errors.BadDrawable;
+import com.winlator.cmod.xserver.errors.BadGraphicsContext;
+import com.winlator.cmod.xserver.errors.XRequestError;
+import com.winlator.cmod.xserver.requests.DrawRequests;
+
+import java.nio.ByteBuffer;
+
+public class PutImageStream {
+    public static final int MIN_REQUEST_LENGTH = 65536;
+    private static final int HEADER_LENGTH = 20;
+    private static final int BEGIN_LOCK_MASK = XServer.lockMask(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+    private static final int WRITE_LOCK_MASK = XServer.lockMask(XServer.Lockable.DRAWABLE_MANAGER);
+    private final byte format;
+    private final int drawableId;
+    private final int gcId;
+    private final short width;
+    private final short height;
+    private final short dstX;
+    private final short dstY;
+    private final int rowLength;
+    private int remainingLength;
+    private int row = 0;
+    private boolean discard = false;
+    private long handlingTime = 0;
+    private long lockWaitTime = 0;
+    private int bytesIn = 0;
+    private long bytesOut = 0;
+
+    private PutImageStream(byte format, int drawableId, int gcId, short width, short height, short dstX, short dstY, int remainingLength) {
+        this.format = format;
+        this.drawableId = drawableId;
+        this.gcId = gcId;
+        this.width = width;
+        this.height = height;
+        this.dstX = dstX;
+        this.dstY = dstY;
+        this.rowLength = width * 4;
+        this.remainingLength = remainingLength;
+    }
+
+    public static PutImageStream create(byte format, XInputStream inputStream, int requestLength) {
+        if (requestLength < MIN_REQUEST_LENGTH || inputStream.available() < HEADER_LENGTH) return null;
+        if (format != DrawRequests.Format.Z_PIXMAP.ordinal()) return null;
+
+        int drawableId = inputStream.readInt();
+        int gcId = inputStream.readInt();
+        short width = inputStream.readShort();
+        short height = inputStream.readShort();
+        short dstX = inputStream.readShort();
+        short dstY = inputStream.readShort();
+        byte leftPad = inputStream.readByte();
+        byte depth = inputStream.readByte();
+        inputStream.skip(2);
+
+        int dataLength = requestLength - HEADER_LENGTH;
+        if (leftPad != 0 || (depth != 24 && depth != 32) || width <= 0 || height <= 0 || dataLength < width * height * 4) return null;
+        return new PutImageStream(format, drawableId, gcId, width, height, dstX, dstY, dataLength);
+    }
+
+    public void begin(XClient client) throws XRequestError {
+        try (XLock lock = client.xServer.lock(BEGIN_LOCK_MASK, 0)) {
+            if (client.xServer.drawableManager.getDrawable(drawableId) == null) throw new BadDrawable(drawableId);
+            if (client.xServer.graphicsContextManager.getGraphicsContext(gcId) == null) throw new BadGraphicsContext(gcId);
+        }
+        catch (XRequestError e) {
+            discard = true;
+            throw e;
+        }
+    }
+
+    public boolean write(XClient client, XInputStream inputStream) {
+        int available = inputStream.available();
+        if (!discard && row < height) {
+            int rows = Math.min(available / rowLength, height - row);
+            if (rows == 0) return false;
+
+            int length = rows * rowLength;
+            ByteBuffer data = inputStream.readByteBuffer(length).slice();
+            try (XLock lock = client.xServer.lock(WRITE_LOCK_MASK, 0)) {
+                Drawable drawable = client.xServer.drawableManager.getDrawable(drawableId);
+                if (drawable != null) {
+                    synchronized (drawable.renderLock) {
+                        drawable.drawImageRows(dstX, dstY + row, width, rows, data, row + rows == height);
+                    }
+                }
+            }
+
+            row += rows;
+            remainingLength -= length;
+        }
+        else {
+            int length = Math.min(available, remainingLength);
+            if (length == 0) return false;
+            inputStream.skip(length);
+            remainingLength -= length;
+        }
+
+        if (remainingLength == 0) client.setPutImageStream(null);
+        return true;
+    }
+
+    public boolean isFinished() {
+        return remainingLength == 0;
+    }
+
+    public void addStatistics(long handlingTime, long lockWaitTime, int bytesIn, long bytesOut) {
+        this.handlingTime += handlingTime;
+        this.lockWaitTime += lockWaitTime;
+        this.bytesIn += bytesIn;
+        this.bytesOut += bytesOut;
+    }
+
+    public void endStatistics(RequestStatistics statistics) {
+        statistics.endRequest(ClientOpcodes.PUT_IMAGE, format, handlingTime, lockWaitTime, bytesIn, bytesOut);
+    }
+}
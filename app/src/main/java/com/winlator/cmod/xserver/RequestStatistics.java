@@ -0,0 +1,162 @@
+package com.winlator.cmod.xserver;
+
+import com.winlator.cmod.core.Histogram;
+import com.winlator.cmod.xserver.extensions.Extension;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class RequestStatistics {
+    private final XServer xServer;
+    private volatile AtomicReferenceArray<Entry> entries;
+    private final ThreadLocal<long[]> lockWaitTime = ThreadLocal.withInitial(() -> new long[1]);
+    private volatile boolean enabled = false;
+
+    public static class Entry {
+        public final byte opcode;
+        public final byte minorOpcode;
+        public final Histogram handlingTime = new Histogram();
+        public final Histogram lockWaitTime = new Histogram();
+        public final Histogram bytesIn = new Histogram();
+        public final Histogram bytesOut = new Histogram();
+
+        private Entry(byte opcode, byte minorOpcode) {
+            this.opcode = opcode;
+            this.minorOpcode = minorOpcode;
+        }
+    }
+
+    public RequestStatistics(XServer xServer) {
+        this.xServer = xServer;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled && entries == null) entries = new AtomicReferenceArray<>(65536);
+        this.enabled = enabled;
+    }
+
+    private static int getEntryIndex(byte opcode, byte minorOpcode) {
+        return opcode < 0 ? ((opcode & 0xff) << 8) | (minorOpcode & 0xff) : opcode;
+    }
+
+    public Entry getEntry(byte opcode, byte minorOpcode) {
+        AtomicReferenceArray<Entry> entries = this.entries;
+        if (entries == null) return null;
+        int index = getEntryIndex(opcode, minorOpcode);
+        Entry entry = entries.get(index);
+        if (entry == null) {
+            entries.compareAndSet(index, null, new Entry(opcode, opcode < 0 ? minorOpcode : 0));
+            entry = entries.get(index);
+        }
+        return entry;
+    }
+
+    public void beginRequest() {
+        lockWaitTime.get()[0] = 0;
+    }
+
+    public void addLockWaitTime(long time) {
+        lockWaitTime.get()[0] += time;
+    }
+
+    public long getLockWaitTime() {
+        return lockWaitTime.get()[0];
+    }
+
+    public void endRequest(byte opcode, byte minorOpcode, long handlingTime, int bytesIn, long bytesOut) {
+        endRequest(opcode, minorOpcode, handlingTime, lockWaitTime.get()[0], bytesIn, bytesOut);
+    }
+
+    public void endRequest(byte opcode, byte minorOpcode, long handlingTime, long lockWaitTime, int bytesIn, long bytesOut) {
+        Entry entry = getEntry(opcode, minorOpcode);
+        if (entry == null) return;
+        entry.handlingTime.record(handlingTime);
+        entry.lockWaitTime.record(lockWaitTime);
+        entry.bytesIn.record(bytesIn);
+        entry.bytesOut.record(bytesOut);
+    }
+
+    public void reset() {
+        AtomicReferenceArray<Entry> entries = this.entries;
+        if (entries == null) return;
+        for (int i = 0; i < entries.length(); i++) entries.set(i, null);
+    }
+
+    public String getName(byte opcode, byte minorOpcode) {
+        if (opcode >= 0) {
+            String name = findConstantName(ClientOpcodes.class, opcode);
+            return name != null ? name : String.valueOf(opcode);
+        }
+
+        Extension extension = xServer.extensions.get(opcode);
+        if (extension == null) return opcode+":"+minorOpcode;
+
+        String name = null;
+        for (Class<?> declaredClass : extension.getClass().getDeclaredClasses()) {
+            if (declaredClass.getSimpleName().equals("ClientOpcodes")) {
+                name = findConstantName(declaredClass, minorOpcode);
+                break;
+            }
+        }
+        return extension.getName()+":"+(name != null ? name : String.valueOf(minorOpcode));
+    }
+
+    private static String findConstantName(Class<?> constantsClass, byte value) {
+        for (Field field : constantsClass.getDeclaredFields()) {
+            if (field.getType() != byte.class || !Modifier.isStatic(field.getModifiers())) continue;
+            try {
+                field.setAccessible(true);
+                if (field.getByte(null) == value) return field.getName();
+            }
+            catch (IllegalAccessException e) {}
+        }
+        return null;
+    }
+
+    public void dump(PrintWriter writer) {
+        AtomicReferenceArray<Entry> entries = this.entries;
+        ArrayList<Entry> sortedEntries = new ArrayList<>();
+        for (int i = 0; entries != null && i < entries.length(); i++) {
+            Entry entry = entries.get(i);
+            if (entry != null) sortedEntries.add(entry);
+        }
+        sortedEntries.sort((a, b) -> Long.compare(b.handlingTime.getSum(), a.handlingTime.getSum()));
+
+        writer.println(String.format(Locale.ENGLISH, "%-36s %10s %10s %9s %9s %9s %9s %11s %11s %10s %10s",
+            "request", "count", "total ms", "mean us", "p50 us", "p99 us", "max us", "lock p99 us", "lock tot ms", "in KB", "out KB"));
+
+        for (Entry entry : sortedEntries) {
+            Histogram time = entry.handlingTime;
+            Histogram lockWait = entry.lockWaitTime;
+            writer.println(String.format(Locale.ENGLISH, "%-36s %10d %10.3f %9.2f %9.2f %9.2f %9.2f %11.2f %11.3f %10d %10d",
+                getName(entry.opcode, entry.minorOpcode),
+                time.getCount(),
+                time.getSum() / 1e6,
+                time.getMean() / 1e3,
+                time.getPercentile(50) / 1e3,
+                time.getPercentile(99) / 1e3,
+                time.getMax() / 1e3,
+                lockWait.getPercentile(99) / 1e3,
+                lockWait.getSum() / 1e6,
+                entry.bytesIn.getSum() / 1024,
+                entry.bytesOut.getSum() / 1024));
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter stringWriter = new StringWriter();
+        dump(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+}
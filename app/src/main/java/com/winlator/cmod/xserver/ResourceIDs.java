@@ -1,27 +1,25 @@
 package com.winlator.cmod.xserver;
 
-import androidx.collection.ArraySet;
-
-import java.util.Iterator;
+import java.util.BitSet;
 
 public class ResourceIDs {
-    private final ArraySet<Integer> idBases = new ArraySet<>();
+    private final BitSet freeSlots = new BitSet();
+    private final int base;
     public final int idMask;
 
     public ResourceIDs(int maxClients) {
         int clientsBits = 32 - Integer.numberOfLeadingZeros(maxClients);
         clientsBits = Integer.bitCount(maxClients) == 1 ? clientsBits - 1 : clientsBits;
-        int base = 29 - clientsBits;
+        base = 29 - clientsBits;
         idMask = (1 << base) - 1;
-        for (int i = 1; i < maxClients; i++) idBases.add(i << base);
+        freeSlots.set(1, maxClients);
     }
 
     public synchronized Integer get() {
-        if (idBases.isEmpty()) return -1;
-        Iterator<Integer> iter = idBases.iterator();
-        int idBase = iter.next();
-        iter.remove();
-        return idBase;
+        int slot = freeSlots.nextSetBit(0);
+        if (slot == -1) return -1;
+        freeSlots.clear(slot);
+        return slot << base;
     }
 
     public boolean isInInterval(int value, int idBase) {
@@ -29,6 +27,6 @@ public class ResourceIDs {
     }
 
     public synchronized void free(Integer idBase) {
-        idBases.add(idBase);
+        if (idBase > 0) freeSlots.set(idBase >>> base);
     }
 }
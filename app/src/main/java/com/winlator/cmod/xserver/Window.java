@@ -4,6 +4,7 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import com.winlator.cmod.xserver.events.Event;
+import com.winlator.cmod.xserver.events.MotionNotify;
 import com.winlator.cmod.xserver.events.PropertyNotify;
 
 import java.util.ArrayList;
@@ -35,6 +36,9 @@ public class Window extends XResource {
     private final ArrayList<Window> children = new ArrayList<>();
     private final List<Window> immutableChildren = Collections.unmodifiableList(children);
     private final ArrayList<EventListener> eventListeners = new ArrayList<>();
+    private volatile WindowIndex childIndex;
+    private volatile int allEventMasks = 0;
+    private static volatile int hitTestGeneration = 0;
 
     public Window(int id, Drawable content, int x, int y, int width, int height, XClient originClient) {
         super(id);
@@ -52,6 +56,7 @@ public class Window extends XResource {
 
     public void setX(short x) {
         this.x = x;
+        if (parent != null) parent.invalidateChildIndex();
     }
 
     public short getY() {
@@ -60,6 +65,7 @@ public class Window extends XResource {
 
     public void setY(short y) {
         this.y = y;
+        if (parent != null) parent.invalidateChildIndex();
     }
 
     public short getWidth() {
@@ -68,6 +74,7 @@ public class Window extends XResource {
 
     public void setWidth(short width) {
         this.width = width;
+        if (parent != null) parent.invalidateChildIndex();
     }
 
     public short getHeight() {
@@ -76,6 +83,7 @@ public class Window extends XResource {
 
     public void setHeight(short height) {
         this.height = height;
+        if (parent != null) parent.invalidateChildIndex();
     }
 
     public short getBorderWidth() {
@@ -189,12 +197,14 @@ public class Window extends XResource {
         if (child == null || child.parent == this) return;
         child.parent = this;
         children.add(child);
+        invalidateChildIndex();
     }
 
     public void removeChild(Window child) {
         if (child == null || child.parent != this) return;
         child.parent = null;
         children.remove(child);
+        invalidateChildIndex();
     }
 
     public Window previousSibling() {
@@ -204,6 +214,7 @@ public class Window extends XResource {
     }
 
     public void moveChildAbove(Window child, Window sibling) {
+        invalidateChildIndex();
         children.remove(child);
         if (sibling != null && children.contains(sibling)) {
             children.add(children.indexOf(sibling) + 1, child);
@@ -213,6 +224,7 @@ public class Window extends XResource {
     }
 
     public void moveChildBelow(Window child, Window sibling) {
+        invalidateChildIndex();
         children.remove(child);
         if (sibling != null && children.contains(sibling)) {
             children.add(children.indexOf(sibling), child);
@@ -221,6 +233,16 @@ public class Window extends XResource {
         children.add(0, child);
     }
 
+    void invalidateChildIndex() {
+        childIndex = null;
+        hitTestGeneration++;
+    }
+
+    /* Changes whenever the stacking, mapping or geometry of any window changes */
+    public static int getHitTestGeneration() {
+        return hitTestGeneration;
+    }
+
     public List<Window> getChildren() {
         return immutableChildren;
     }
@@ -231,28 +253,28 @@ public class Window extends XResource {
 
     public void addEventListener(EventListener eventListener) {
         eventListeners.add(eventListener);
+        allEventMasks |= eventListener.eventMask.getBits();
     }
 
     public void removeEventListener(EventListener eventListener) {
-        eventListeners.remove(eventListener);
+        if (!eventListeners.remove(eventListener)) return;
+        int allEventMasks = 0;
+        for (int i = 0; i < eventListeners.size(); i++) allEventMasks |= eventListeners.get(i).eventMask.getBits();
+        this.allEventMasks = allEventMasks;
     }
 
     public boolean hasEventListenerFor(int eventId) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId)) return true;
-        }
-        return false;
+        return (allEventMasks & eventId) != 0;
     }
 
     public boolean hasEventListenerFor(Bitmask mask) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(mask)) return true;
-        }
-        return false;
+        return hasEventListenerFor(mask.getBits());
     }
 
     public void sendEvent(int eventId, Event event) {
-        for (EventListener eventListener : eventListeners) {
+        if ((allEventMasks & eventId) == 0) return;
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
             if (eventListener.isInterestedIn(eventId)) {
                 eventListener.sendEvent(event);
             }
@@ -260,15 +282,13 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventMask)) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventMask.getBits(), event);
     }
 
     public void sendEvent(int eventId, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
+        if ((allEventMasks & eventId) == 0) return;
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
             if (eventListener.isInterestedIn(eventId) && eventListener.client == client) {
                 eventListener.sendEvent(event);
             }
@@ -276,20 +296,27 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventMask.getBits(), event, client);
     }
 
     public void sendEvent(Event event) {
-        for (EventListener eventListener : eventListeners) eventListener.sendEvent(event);
+        for (int i = 0; i < eventListeners.size(); i++) eventListeners.get(i).sendEvent(event);
+    }
+
+    public void sendMotionNotify(int eventMask, MotionNotify event, XClient client) {
+        if ((allEventMasks & eventMask) == 0) return;
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
+            if (eventListener.isInterestedIn(eventMask) && (client == null || eventListener.client == client)) {
+                eventListener.sendMotionNotify(event);
+            }
+        }
     }
 
     public boolean containsPoint(short rootX, short rootY) {
-        short[] localPoint = rootPointToLocal(rootX, rootY);
-        return localPoint[0] >= 0 && localPoint[1] >= 0 && localPoint[0] < width && localPoint[1] < height;
+        int localX = rootX - getRootX();
+        int localY = rootY - getRootY();
+        return localX >= 0 && localY >= 0 && localX < width && localY < height;
     }
 
     public short[] rootPointToLocal(short x, short y) {
@@ -333,10 +360,14 @@ public class Window extends XResource {
     }
 
     public Window getAncestorWithEventMask(Bitmask eventMask) {
+        return getAncestorWithEventMask(eventMask.getBits());
+    }
+
+    public Window getAncestorWithEventMask(int eventMask) {
         Window window = this;
         while (window != null) {
             if (window.hasEventListenerFor(eventMask)) return window;
-            if (window.attributes.getDoNotPropagateMask().intersects(eventMask)) return null;
+            if (window.attributes.getDoNotPropagateMask().isSet(eventMask)) return null;
             window = window.parent;
         }
         return null;
@@ -366,6 +397,16 @@ public class Window extends XResource {
     }
 
     public Window getChildByCoords(short x, short y) {
+        if (children.size() >= WindowIndex.MIN_CHILD_COUNT) {
+            /* Hit-tests run under a shared lock, concurrent rebuilds produce identical indexes */
+            WindowIndex childIndex = this.childIndex;
+            if (childIndex == null) this.childIndex = childIndex = new WindowIndex(this, children);
+
+            int localX = x - getRootX();
+            int localY = y - getRootY();
+            if (childIndex.covers(localX, localY)) return childIndex.find(localX, localY);
+        }
+
         for (int i = children.size()-1; i >= 0; i--) {
             Window child = children.get(i);
             if (child.attributes.isMapped() && child.containsPoint(x, y)) return child;
@@ -385,9 +426,11 @@ public class Window extends XResource {
     }
 
     public Bitmask getAllEventMasks() {
-        Bitmask eventMask = new Bitmask();
-        for (EventListener eventListener : eventListeners) eventMask.join(eventListener.eventMask);
-        return eventMask;
+        return new Bitmask(allEventMasks);
+    }
+
+    public int getAllEventMaskBits() {
+        return allEventMasks;
     }
 
     public EventListener getButtonPressListener() {
@@ -62,6 +62,12 @@ public class WindowAttributes {
         return cursor == null && parent != null ? parent.attributes.getCursor() : cursor;
     }
 
+    void setCursor(CursorManager cursorManager, Cursor cursor) {
+        if (cursor != null) cursorManager.retainCursor(cursor);
+        if (this.cursor != null) cursorManager.releaseCursor(this.cursor);
+        this.cursor = cursor;
+    }
+
     public Bitmask getEventMask() {
         return eventMask;
     }
@@ -76,6 +82,8 @@ public class WindowAttributes {
 
     public void setMapped(boolean mapped) {
         this.mapped = mapped;
+        Window parent = window.getParent();
+        if (parent != null) parent.invalidateChildIndex();
     }
 
     public boolean isOverrideRedirect() {
@@ -144,7 +152,7 @@ public class WindowAttributes {
                     doNotPropagateMask = new Bitmask(inputStream.readInt());
                     break;
                 case FLAG_CURSOR:
-                    cursor = client.xServer.cursorManager.getCursor(inputStream.readInt());
+                    setCursor(client.xServer.cursorManager, client.xServer.cursorManager.getCursor(inputStream.readInt()));
                     break;
                 case FLAG_BACKGROUND_PIXMAP:
                 case FLAG_BORDER_PIXMAP:
@@ -0,0 +1,85 @@
+package com.winlator.cmod.xserver;
+
+import java.util.List;
+
+class WindowIndex {
+    public static final int MIN_CHILD_COUNT = 8;
+    private static final int GRID_SIZE = 16;
+    private final Window[] windows;
+    private final int[] rects;
+    private final int width;
+    private final int height;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int[] cellStart = new int[GRID_SIZE * GRID_SIZE + 1];
+    private final int[] cellItems;
+
+    public WindowIndex(Window parent, List<Window> children) {
+        width = parent.getWidth();
+        height = parent.getHeight();
+        cellWidth = Math.max(1, (width + GRID_SIZE - 1) / GRID_SIZE);
+        cellHeight = Math.max(1, (height + GRID_SIZE - 1) / GRID_SIZE);
+
+        int count = 0;
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).attributes.isMapped()) count++;
+        }
+
+        windows = new Window[count];
+        rects = new int[count * 4];
+        count = 0;
+        for (int i = children.size()-1; i >= 0; i--) {
+            Window child = children.get(i);
+            if (!child.attributes.isMapped()) continue;
+            int j = count * 4;
+            rects[j+0] = child.getX();
+            rects[j+1] = child.getY();
+            rects[j+2] = child.getX() + child.getWidth();
+            rects[j+3] = child.getY() + child.getHeight();
+            windows[count++] = child;
+        }
+
+        for (int i = 0; i < count; i++) forEachCell(i, null);
+        for (int i = 1; i < cellStart.length; i++) cellStart[i] += cellStart[i-1];
+
+        cellItems = new int[cellStart[cellStart.length-1]];
+        int[] cursor = new int[cellStart.length];
+        System.arraycopy(cellStart, 0, cursor, 0, cellStart.length - 1);
+        for (int i = 0; i < count; i++) forEachCell(i, cursor);
+    }
+
+    private void forEachCell(int index, int[] cursor) {
+        int j = index * 4;
+        int x0 = Math.max(rects[j+0], 0);
+        int y0 = Math.max(rects[j+1], 0);
+        int x1 = Math.min(rects[j+2], width);
+        int y1 = Math.min(rects[j+3], height);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        int cellX1 = (x1 - 1) / cellWidth;
+        int cellY1 = (y1 - 1) / cellHeight;
+        for (int cellY = y0 / cellHeight; cellY <= cellY1; cellY++) {
+            for (int cellX = x0 / cellWidth; cellX <= cellX1; cellX++) {
+                int cell = cellY * GRID_SIZE + cellX;
+                if (cursor != null) {
+                    cellItems[cursor[cell]++] = index;
+                }
+                else cellStart[cell+1]++;
+            }
+        }
+    }
+
+    public boolean covers(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public Window find(int x, int y) {
+        int cell = (y / cellHeight) * GRID_SIZE + (x / cellWidth);
+        for (int i = cellStart[cell], end = cellStart[cell+1]; i < end; i++) {
+            int index = cellItems[i];
+            int j = index * 4;
+            if (x >= rects[j+0] && y >= rects[j+1] && x < rects[j+2] && y < rects[j+3]) return windows[index];
+        }
+        return null;
+    }
+}
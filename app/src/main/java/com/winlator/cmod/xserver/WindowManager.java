@@ -27,6 +27,11 @@ public class WindowManager extends XResourceManager {
     private Window focusedWindow;
     private FocusRevertTo focusRevertTo = FocusRevertTo.NONE;
     private final ArrayList<OnWindowModificationListener> onWindowModificationListeners = new ArrayList<>();
+    /* Point window lookups run with the INPUT_DEVICE or WINDOW_MANAGER lock held exclusively */
+    private Window cachedPointWindow;
+    private short cachedPointX;
+    private short cachedPointY;
+    private int cachedPointGeneration = -1;
 
     public interface OnWindowModificationListener {
         default void onMapWindow(Window window) {}
@@ -279,7 +284,14 @@ public class WindowManager extends XResourceManager {
     }
 
     public Window findPointWindow(short rootX, short rootY) {
-        return findPointWindow(rootWindow, rootX, rootY);
+        int generation = Window.getHitTestGeneration();
+        if (generation != cachedPointGeneration || rootX != cachedPointX || rootY != cachedPointY) {
+            cachedPointWindow = findPointWindow(rootWindow, rootX, rootY);
+            cachedPointX = rootX;
+            cachedPointY = rootY;
+            cachedPointGeneration = generation;
+        }
+        return cachedPointWindow;
     }
 
     private Window findPointWindow(Window window, short rootX, short rootY) {
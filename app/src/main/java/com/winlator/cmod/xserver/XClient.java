@@ -4,10 +4,11 @@ import androidx.collection.ArrayMap;
 
 import com.winlator.cmod.xconnector.XInputStream;
 import com.winlator.cmod.xconnector.XOutputStream;
+import com.winlator.cmod.xconnector.XStreamLock;
 import com.winlator.cmod.xserver.events.Event;
+import com.winlator.cmod.xserver.events.MotionNotify;
 
 import java.io.IOException;
-import java.util.ArrayList;
 
 public class XClient implements XResourceManager.OnResourceLifecycleListener {
     public final XServer xServer;
@@ -20,7 +21,12 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private final XInputStream inputStream;
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
-    private final ArrayList<XResource> resources = new ArrayList<>();
+    private final XResourceSet resources = new XResourceSet();
+    private PutImageStream putImageStream;
+    private long motionNotifyOffset = -1;
+    private int motionNotifyWindowId;
+    private int motionHintWindowId;
+    private int motionHintGeneration;
 
     public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
         this.xServer = xServer;
@@ -58,6 +64,34 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         }
     }
 
+    public void sendMotionNotify(MotionNotify event, boolean hint) {
+        try (XStreamLock lock = outputStream.lock()) {
+            int windowId = event.getEventWindowId();
+            if (!hint && motionNotifyWindowId == windowId && outputStream.getTotalBytesWritten() - motionNotifyOffset == MotionNotify.LENGTH) {
+                outputStream.discardUnsentTail(motionNotifyOffset);
+            }
+
+            motionNotifyOffset = outputStream.getTotalBytesWritten();
+            motionNotifyWindowId = hint ? 0 : windowId;
+            event.write(sequenceNumber, outputStream, hint);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean acquireMotionHint(int windowId) {
+        int generation = xServer.inputDeviceManager.getMotionHintGeneration();
+        if (motionHintWindowId == windowId && motionHintGeneration == generation) return false;
+        motionHintWindowId = windowId;
+        motionHintGeneration = generation;
+        return true;
+    }
+
+    public void resetMotionHint() {
+        motionHintWindowId = 0;
+    }
+
     public boolean isInterestedIn(int eventId, Window window) {
         EventListener eventListener = eventListeners.get(window);
         return eventListener != null && eventListener.isInterestedIn(eventId);
@@ -73,21 +107,27 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
 
     public void freeResources() {
         try (XLock lock = xServer.lockAll()) {
-            while (!resources.isEmpty()) {
-                XResource resource = resources.remove(resources.size()-1);
-                if (resource instanceof Window) {
-                    xServer.windowManager.destroyWindow(resource.id);
-                }
-                else if (resource instanceof Pixmap) {
-                    xServer.pixmapManager.freePixmap(resource.id);
-                }
-                else if (resource instanceof GraphicsContext) {
-                    xServer.graphicsContextManager.freeGraphicsContext(resource.id);
-                }
-                else if (resource instanceof Cursor) {
-                    xServer.cursorManager.freeCursor(resource.id);
+            xServer.drawableManager.beginBulkRemoval();
+            try {
+                for (XResource resource : resources.toArray()) {
+                    if (!resources.remove(resource)) continue;
+                    if (resource instanceof Window) {
+                        xServer.windowManager.destroyWindow(resource.id);
+                    }
+                    else if (resource instanceof Pixmap) {
+                        xServer.pixmapManager.freePixmap(resource.id);
+                    }
+                    else if (resource instanceof GraphicsContext) {
+                        xServer.graphicsContextManager.freeGraphicsContext(resource.id);
+                    }
+                    else if (resource instanceof Cursor) {
+                        xServer.cursorManager.freeCursor(resource.id);
+                    }
                 }
             }
+            finally {
+                xServer.drawableManager.endBulkRemoval();
+            }
 
             while (!eventListeners.isEmpty()) {
                 int i = eventListeners.size()-1;
@@ -102,6 +142,14 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         }
     }
 
+    public PutImageStream getPutImageStream() {
+        return putImageStream;
+    }
+
+    public void setPutImageStream(PutImageStream putImageStream) {
+        this.putImageStream = putImageStream;
+    }
+
     public void generateSequenceNumber() {
         sequenceNumber++;
     }
@@ -28,6 +28,25 @@ public class XClientRequestHandler implements RequestHandler {
     public static final byte RESPONSE_CODE_ERROR = 0;
     public static final byte RESPONSE_CODE_SUCCESS = 1;
     public static final int MAX_REQUEST_LENGTH = 65535;
+    private static final RequestEntry[] requestEntries = new RequestEntry[128];
+
+    private interface RequestHandlerFunction {
+        void handleRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError;
+    }
+
+    private static class RequestEntry {
+        private final int sharedLockMask;
+        private final int exclusiveLockMask;
+        private final boolean exclusiveOnRequestData;
+        private final RequestHandlerFunction handler;
+
+        private RequestEntry(int sharedLockMask, int exclusiveLockMask, boolean exclusiveOnRequestData, RequestHandlerFunction handler) {
+            this.sharedLockMask = sharedLockMask;
+            this.exclusiveLockMask = exclusiveLockMask;
+            this.exclusiveOnRequestData = exclusiveOnRequestData;
+            this.handler = handler;
+        }
+    }
 
     @Override
     public boolean handleRequest(Client client) throws IOException {
@@ -41,6 +60,14 @@ public class XClientRequestHandler implements RequestHandler {
         else return handleAuthRequest(xClient, inputStream, outputStream);
     }
 
+    @Override
+    public boolean isPriorityClient(Client client) {
+        XClient xClient = (XClient)client.getTag();
+        if (xClient == null) return false;
+        Window focusedWindow = xClient.xServer.windowManager.getFocusedWindow();
+        return focusedWindow != null && focusedWindow.originClient == xClient;
+    }
+
     private void sendServerInformation(XClient client, XOutputStream outputStream) throws IOException {
         short vendorNameLength = (short)XServer.VENDOR_NAME.length();
         byte pixmapFormatCount = (byte)client.xServer.pixmapManager.supportedPixmapFormats.length;
@@ -82,7 +109,7 @@ public class XClientRequestHandler implements RequestHandler {
             outputStream.writeInt(0);
             outputStream.writeInt(0xffffff);
             outputStream.writeInt(0x000000);
-            outputStream.writeInt(client.xServer.windowManager.rootWindow.getAllEventMasks().getBits());
+            outputStream.writeInt(client.xServer.windowManager.rootWindow.getAllEventMaskBits());
             outputStream.writeShort(client.xServer.screenInfo.width);
             outputStream.writeShort(client.xServer.screenInfo.height);
             outputStream.writeShort(client.xServer.screenInfo.getWidthInMillimeters());
@@ -150,10 +177,14 @@ public class XClientRequestHandler implements RequestHandler {
     }
 
     private boolean handleNormalRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        PutImageStream putImageStream = client.getPutImageStream();
+        if (putImageStream != null) return writePutImageStream(client, putImageStream, inputStream, outputStream);
+
         if (inputStream.available() < 4) return false;
         byte opcode = inputStream.readByte();
         byte requestData = inputStream.readByte();
 
+        int headerLength = 4;
         int requestLength = inputStream.readUnsignedShort();
         if (requestLength != 0) {
             requestLength = requestLength * 4 - 4;
@@ -161,306 +192,218 @@ public class XClientRequestHandler implements RequestHandler {
         else if (inputStream.available() < 4) {
             return false;
         }
-        else requestLength = inputStream.readInt() * 4 - 8;
-        if (inputStream.available() < requestLength) return false;
+        else {
+            requestLength = inputStream.readInt() * 4 - 8;
+            headerLength = 8;
+        }
+        if (inputStream.available() < requestLength) {
+            return opcode == ClientOpcodes.PUT_IMAGE && beginPutImageStream(client, requestData, headerLength, requestLength, inputStream, outputStream);
+        }
+
+        client.generateSequenceNumber();
+        client.setRequestData(requestData);
+        client.setRequestLength(requestLength);
+
+        RequestStatistics statistics = client.xServer.requestStatistics;
+        if (statistics.isEnabled()) {
+            long startTime = System.nanoTime();
+            long bytesWritten = outputStream.getTotalBytesWritten();
+            statistics.beginRequest();
+            try {
+                dispatchRequest(client, opcode, inputStream, outputStream);
+            }
+            finally {
+                statistics.endRequest(opcode, requestData, System.nanoTime() - startTime, headerLength + requestLength, outputStream.getTotalBytesWritten() - bytesWritten);
+            }
+        }
+        else dispatchRequest(client, opcode, inputStream, outputStream);
+        return true;
+    }
+
+    private boolean beginPutImageStream(XClient client, byte requestData, int headerLength, int requestLength, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        PutImageStream putImageStream = PutImageStream.create(requestData, inputStream, requestLength);
+        if (putImageStream == null) return false;
+
+        RequestStatistics statistics = client.xServer.requestStatistics;
+        long startTime = System.nanoTime();
+        long bytesWritten = outputStream.getTotalBytesWritten();
+        if (statistics.isEnabled()) statistics.beginRequest();
 
         client.generateSequenceNumber();
         client.setRequestData(requestData);
         client.setRequestLength(requestLength);
+        client.setPutImageStream(putImageStream);
 
         try {
-            switch (opcode) {
-                case ClientOpcodes.CREATE_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER)) {
-                        WindowRequests.createWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CHANGE_WINDOW_ATTRIBUTES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.CURSOR_MANAGER)) {
-                        WindowRequests.changeWindowAttributes(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_WINDOW_ATTRIBUTES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.getWindowAttributes(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.DESTROY_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.destroyWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.DESTROY_SUB_WINDOWS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.destroySubWindows(client, inputStream, outputStream);
-                    }
-                case ClientOpcodes.REPARENT_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.reparentWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.MAP_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.mapWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.MAP_SUB_WINDOWS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.mapSubWindows(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.UNMAP_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.unmapWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CONFIGURE_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.configureWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_GEOMETRY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        WindowRequests.getGeometry(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_TREE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.queryTree(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.INTERN_ATOM:
-                    AtomRequests.internAtom(client, inputStream, outputStream);
-                    break;
-                /* This seems to also link to UnmapWindow */
-                case ClientOpcodes.GET_ATOM_NAME:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        AtomRequests.getAtomName(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CHANGE_PROPERTY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.changeProperty(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.DELETE_PROPERTY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.deleteProperty(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_PROPERTY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.getProperty(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SET_SELECTION_OWNER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        SelectionRequests.setSelectionOwner(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_SELECTION_OWNER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        SelectionRequests.getSelectionOwner(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SEND_EVENT:
-                    try (XLock lock = client.xServer.lockAll()) {
-                        WindowRequests.sendEvent(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GRAB_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER)) {
-                        GrabRequests.grabPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.UNGRAB_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        GrabRequests.ungrabPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.queryPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.TRANSLATE_COORDINATES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.translateCoordinates(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.WARP_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.warpPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SET_INPUT_FOCUS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.setInputFocus(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_INPUT_FOCUS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.getInputFocus(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_KEYMAP:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        outputStream.writeByte(RESPONSE_CODE_SUCCESS);
-                        outputStream.writeByte((byte) 0);
-                        outputStream.writeShort(client.getSequenceNumber());
-                        outputStream.writeInt(2);
-                        outputStream.writePad(32);
-                    }
-                    break;
-                case ClientOpcodes.OPEN_FONT:
-                    FontRequests.openFont(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.LIST_FONTS:
-                    FontRequests.listFonts(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.CREATE_PIXMAP:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        PixmapRequests.createPixmap(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.FREE_PIXMAP:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        PixmapRequests.freePixmap(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CREATE_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.createGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CHANGE_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.changeGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.COPY_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.copyGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SET_CLIP_RECTANGLES:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.FREE_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.freeGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.COPY_AREA:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.copyArea(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.POLY_LINE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.polyLine(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.POLY_SEGMENT:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.POLY_RECTANGLE:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.POLY_FILL_RECTANGLE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.polyFillRectangle(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.PUT_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.putImage(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        DrawRequests.getImage(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CREATE_COLORMAP:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.FREE_COLORMAP:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.CREATE_CURSOR:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER)) {
-                        CursorRequests.createCursor(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CREATE_GLYPH_CURSOR:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.FREE_CURSOR:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER)) {
-                        CursorRequests.freeCursor(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_EXTENSION:
-                    ExtensionRequests.queryExtension(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.GET_KEYBOARD_MAPPING:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.INPUT_DEVICE)) {
-                        KeyboardRequests.getKeyboardMapping(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.BELL:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.SET_SCREEN_SAVER:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.GET_SCREEN_SAVER:
-                    WindowRequests.getScreenSaver(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.FORCE_SCREEN_SAVER:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.GET_MODIFIER_MAPPING:
-                    KeyboardRequests.getModifierMapping(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.NO_OPERATION:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.GET_POINTER_MAPPING:
-                    CursorRequests.getPointerMaping(client, inputStream, outputStream);
-                    break;
-                case 36: // X_GrabServer
-                    try (XLock lock = client.xServer.lockAll()) {
-                        client.xServer.setGrabbed(true, client);
-                        outputStream.writeSuccessReply(client.getSequenceNumber(), 0);
-                        Log.d("XClientRequestHandler", "X_GrabServer request handled successfully:" + outputStream.buffer.position());
-                    }
-                    break;
-
-                case 37: // X_UngrabServer
-                    try (XLock lock = client.xServer.lockAll()) {
-                        if (client.xServer.isGrabbedBy(client)) {
-                            client.xServer.setGrabbed(false, null);
-                        }
-                        outputStream.writeSuccessReply(client.getSequenceNumber(), 0);
-                        Log.d("XClientRequestHandler", "X_UngrabServer request handled successfully:" + outputStream.buffer.position());
-                    }
-                    break;
-                default:
-                    if (opcode < 0) {
-                        Extension extension = client.xServer.extensions.get(opcode);
-                        if (extension != null) extension.handleRequest(client, inputStream, outputStream);
-                    }
-                    else Log.d("XClientRequestHandler", "Unsupported opcode " + opcode);
-                    break;
+            putImageStream.begin(client);
+        }
+        catch (XRequestError e) {
+            e.sendError(client, ClientOpcodes.PUT_IMAGE);
+        }
+
+        if (statistics.isEnabled()) {
+            putImageStream.addStatistics(System.nanoTime() - startTime, statistics.getLockWaitTime(), headerLength + requestLength, outputStream.getTotalBytesWritten() - bytesWritten);
+        }
+        return true;
+    }
+
+    private boolean writePutImageStream(XClient client, PutImageStream putImageStream, XInputStream inputStream, XOutputStream outputStream) {
+        RequestStatistics statistics = client.xServer.requestStatistics;
+        if (!statistics.isEnabled()) return putImageStream.write(client, inputStream);
+
+        long startTime = System.nanoTime();
+        long bytesWritten = outputStream.getTotalBytesWritten();
+        statistics.beginRequest();
+        boolean written = putImageStream.write(client, inputStream);
+        putImageStream.addStatistics(System.nanoTime() - startTime, statistics.getLockWaitTime(), 0, outputStream.getTotalBytesWritten() - bytesWritten);
+        if (putImageStream.isFinished()) putImageStream.endStatistics(statistics);
+        return written;
+    }
+
+    private void dispatchRequest(XClient client, byte opcode, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        try {
+            if (opcode < 0) {
+                Extension extension = client.xServer.extensions.get(opcode);
+                if (extension != null) extension.handleRequest(client, inputStream, outputStream);
+                return;
+            }
+
+            RequestEntry entry = requestEntries[opcode];
+            if (entry == null) {
+                Log.d("XClientRequestHandler", "Unsupported opcode " + opcode);
+                return;
             }
+
+            int sharedLockMask = entry.sharedLockMask;
+            int exclusiveLockMask = entry.exclusiveLockMask;
+            if (entry.exclusiveOnRequestData && client.getRequestData() != 0) {
+                exclusiveLockMask |= sharedLockMask;
+                sharedLockMask = 0;
+            }
+
+            if ((sharedLockMask | exclusiveLockMask) != 0) {
+                try (XLock lock = client.xServer.lock(sharedLockMask, exclusiveLockMask)) {
+                    entry.handler.handleRequest(client, inputStream, outputStream);
+                }
+            }
+            else entry.handler.handleRequest(client, inputStream, outputStream);
         }
         catch (XRequestError e) {
             client.skipRequest();
             e.sendError(client, opcode);
         }
+    }
 
-        return true;
+    private static void skipRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) {
+        client.skipRequest();
+    }
+
+    private static void queryKeymap(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        try (XStreamLock lock = outputStream.lock()) {
+            outputStream.writeByte(RESPONSE_CODE_SUCCESS);
+            outputStream.writeByte((byte)0);
+            outputStream.writeShort(client.getSequenceNumber());
+            outputStream.writeInt(2);
+            outputStream.writePad(32);
+        }
+    }
+
+    private static void grabServer(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        client.xServer.setGrabbed(true, client);
+        outputStream.writeSuccessReply(client.getSequenceNumber(), 0);
+        outputStream.sync();
+        Log.d("XClientRequestHandler", "X_GrabServer request handled successfully:" + outputStream.buffer.position());
+    }
+
+    private static void ungrabServer(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        if (client.xServer.isGrabbedBy(client)) {
+            client.xServer.setGrabbed(false, null);
+        }
+        outputStream.writeSuccessReply(client.getSequenceNumber(), 0);
+        outputStream.sync();
+        Log.d("XClientRequestHandler", "X_UngrabServer request handled successfully:" + outputStream.buffer.position());
+    }
+
+    private static void register(byte opcode, RequestHandlerFunction handler, XServer.Lockable... lockables) {
+        register(opcode, handler, XServer.lockMask(lockables));
+    }
+
+    private static void register(byte opcode, RequestHandlerFunction handler, int lockMask) {
+        register(opcode, handler, 0, lockMask, false);
+    }
+
+    /* Shared locks only keep the resources alive, draw requests registered this way serialize on Drawable.renderLock */
+    private static void registerReadOnly(byte opcode, RequestHandlerFunction handler, XServer.Lockable... lockables) {
+        register(opcode, handler, XServer.lockMask(lockables), 0, false);
+    }
+
+    private static void register(byte opcode, RequestHandlerFunction handler, int sharedLockMask, int exclusiveLockMask, boolean exclusiveOnRequestData) {
+        if (requestEntries[opcode] != null) throw new IllegalStateException("Opcode "+opcode+" is already registered.");
+        requestEntries[opcode] = new RequestEntry(sharedLockMask, exclusiveLockMask, exclusiveOnRequestData, handler);
+    }
+
+    static {
+        register(ClientOpcodes.CREATE_WINDOW, WindowRequests::createWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER);
+        register(ClientOpcodes.CHANGE_WINDOW_ATTRIBUTES, WindowRequests::changeWindowAttributes, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER);
+        registerReadOnly(ClientOpcodes.GET_WINDOW_ATTRIBUTES, WindowRequests::getWindowAttributes, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.DESTROY_WINDOW, WindowRequests::destroyWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER);
+        register(ClientOpcodes.DESTROY_SUB_WINDOWS, WindowRequests::destroySubWindows, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER);
+        register(ClientOpcodes.REPARENT_WINDOW, WindowRequests::reparentWindow, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.MAP_WINDOW, WindowRequests::mapWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.MAP_SUB_WINDOWS, WindowRequests::mapSubWindows, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.UNMAP_WINDOW, WindowRequests::unmapWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.CONFIGURE_WINDOW, WindowRequests::configureWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        registerReadOnly(ClientOpcodes.GET_GEOMETRY, WindowRequests::getGeometry, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        registerReadOnly(ClientOpcodes.QUERY_TREE, WindowRequests::queryTree, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.INTERN_ATOM, AtomRequests::internAtom);
+        /* This seems to also link to UnmapWindow */
+        registerReadOnly(ClientOpcodes.GET_ATOM_NAME, AtomRequests::getAtomName, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.CHANGE_PROPERTY, WindowRequests::changeProperty, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.DELETE_PROPERTY, WindowRequests::deleteProperty, XServer.Lockable.WINDOW_MANAGER);
+        /* GetProperty only modifies the window when its delete flag (request data) is set */
+        register(ClientOpcodes.GET_PROPERTY, WindowRequests::getProperty, XServer.lockMask(XServer.Lockable.WINDOW_MANAGER), 0, true);
+        register(ClientOpcodes.SET_SELECTION_OWNER, SelectionRequests::setSelectionOwner, XServer.Lockable.WINDOW_MANAGER);
+        registerReadOnly(ClientOpcodes.GET_SELECTION_OWNER, SelectionRequests::getSelectionOwner, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.SEND_EVENT, WindowRequests::sendEvent, XServer.ALL_LOCKS);
+        register(ClientOpcodes.GRAB_POINTER, GrabRequests::grabPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER);
+        register(ClientOpcodes.UNGRAB_POINTER, GrabRequests::ungrabPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.GRAB_SERVER, XClientRequestHandler::grabServer, XServer.ALL_LOCKS);
+        register(ClientOpcodes.UNGRAB_SERVER, XClientRequestHandler::ungrabServer, XServer.ALL_LOCKS);
+        registerReadOnly(ClientOpcodes.QUERY_POINTER, WindowRequests::queryPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        registerReadOnly(ClientOpcodes.TRANSLATE_COORDINATES, WindowRequests::translateCoordinates, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.WARP_POINTER, WindowRequests::warpPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.SET_INPUT_FOCUS, WindowRequests::setInputFocus, XServer.Lockable.WINDOW_MANAGER);
+        registerReadOnly(ClientOpcodes.GET_INPUT_FOCUS, WindowRequests::getInputFocus, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.QUERY_KEYMAP, XClientRequestHandler::queryKeymap, XServer.Lockable.WINDOW_MANAGER);
+        register(ClientOpcodes.OPEN_FONT, FontRequests::openFont);
+        register(ClientOpcodes.LIST_FONTS, FontRequests::listFonts);
+        register(ClientOpcodes.CREATE_PIXMAP, PixmapRequests::createPixmap, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        register(ClientOpcodes.FREE_PIXMAP, PixmapRequests::freePixmap, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        register(ClientOpcodes.CREATE_GC, GraphicsContextRequests::createGC, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        register(ClientOpcodes.CHANGE_GC, GraphicsContextRequests::changeGC, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        register(ClientOpcodes.COPY_GC, GraphicsContextRequests::copyGC, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        register(ClientOpcodes.SET_CLIP_RECTANGLES, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.FREE_GC, GraphicsContextRequests::freeGC, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        registerReadOnly(ClientOpcodes.COPY_AREA, DrawRequests::copyArea, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        registerReadOnly(ClientOpcodes.POLY_LINE, DrawRequests::polyLine, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        register(ClientOpcodes.POLY_SEGMENT, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.POLY_RECTANGLE, XClientRequestHandler::skipRequest);
+        registerReadOnly(ClientOpcodes.POLY_FILL_RECTANGLE, DrawRequests::polyFillRectangle, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        registerReadOnly(ClientOpcodes.PUT_IMAGE, DrawRequests::putImage, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        registerReadOnly(ClientOpcodes.GET_IMAGE, DrawRequests::getImage, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        register(ClientOpcodes.CREATE_COLORMAP, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.FREE_COLORMAP, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.CREATE_CURSOR, CursorRequests::createCursor, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER);
+        register(ClientOpcodes.CREATE_GLYPH_CURSOR, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.FREE_CURSOR, CursorRequests::freeCursor, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER);
+        register(ClientOpcodes.QUERY_EXTENSION, ExtensionRequests::queryExtension);
+        registerReadOnly(ClientOpcodes.GET_KEYBOARD_MAPPING, KeyboardRequests::getKeyboardMapping, XServer.Lockable.INPUT_DEVICE);
+        register(ClientOpcodes.BELL, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.SET_SCREEN_SAVER, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.GET_SCREEN_SAVER, WindowRequests::getScreenSaver);
+        register(ClientOpcodes.FORCE_SCREEN_SAVER, XClientRequestHandler::skipRequest);
+        register(ClientOpcodes.GET_POINTER_MAPPING, CursorRequests::getPointerMaping);
+        register(ClientOpcodes.GET_MODIFIER_MAPPING, KeyboardRequests::getModifierMapping);
+        register(ClientOpcodes.NO_OPERATION, XClientRequestHandler::skipRequest);
     }
-}
\ No newline at end of file
+}
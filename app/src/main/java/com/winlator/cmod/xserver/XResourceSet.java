@@ -0,0 +1,106 @@
+package com.winlator.cmod.xserver;
+
+public class XResourceSet {
+    private static final int INITIAL_CAPACITY = 64;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private XResource[] resources = new XResource[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private static int hash(int id) {
+        int h = id * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int id) {
+        int mask = resources.length - 1;
+        int index = hash(id) & mask;
+        while (resources[index] != null) {
+            if (ids[index] == id) return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    public XResource get(int id) {
+        int index = indexOf(id);
+        return index != -1 ? resources[index] : null;
+    }
+
+    public boolean add(XResource resource) {
+        if ((size + 1) * 4 > resources.length * 3) resize(resources.length * 2);
+
+        int mask = resources.length - 1;
+        int index = hash(resource.id) & mask;
+        while (resources[index] != null) {
+            if (ids[index] == resource.id) return false;
+            index = (index + 1) & mask;
+        }
+
+        ids[index] = resource.id;
+        resources[index] = resource;
+        size++;
+        return true;
+    }
+
+    public boolean remove(XResource resource) {
+        if (resource == null) return false;
+        int index = indexOf(resource.id);
+        if (index == -1 || resources[index] != resource) return false;
+
+        int mask = resources.length - 1;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (resources[next] == null) break;
+
+            int home = hash(ids[next]) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                ids[index] = ids[next];
+                resources[index] = resources[next];
+                index = next;
+            }
+        }
+
+        resources[index] = null;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public XResource[] toArray() {
+        XResource[] result = new XResource[size];
+        for (int i = 0, j = 0; i < resources.length; i++) {
+            if (resources[i] != null) result[j++] = resources[i];
+        }
+        return result;
+    }
+
+    public void clear() {
+        ids = new int[INITIAL_CAPACITY];
+        resources = new XResource[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] oldIds = ids;
+        XResource[] oldResources = resources;
+        ids = new int[capacity];
+        resources = new XResource[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldResources.length; i++) {
+            if (oldResources[i] == null) continue;
+            int index = hash(oldIds[i]) & mask;
+            while (resources[index] != null) index = (index + 1) & mask;
+            ids[index] = oldIds[i];
+            resources[index] = oldResources[i];
+        }
+    }
+}
@@ -13,11 +13,13 @@ import com.winlator.cmod.xserver.extensions.PresentExtension;
 import com.winlator.cmod.xserver.extensions.SyncExtension;
 
 import java.nio.charset.Charset;
-import java.util.EnumMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class XServer {
     public enum Lockable {WINDOW_MANAGER, PIXMAP_MANAGER, DRAWABLE_MANAGER, GRAPHIC_CONTEXT_MANAGER, INPUT_DEVICE, CURSOR_MANAGER, SHMSEGMENT_MANAGER}
+    private static final Lockable[] LOCKABLES = Lockable.values();
+    public static final int ALL_LOCKS = (1 << LOCKABLES.length) - 1;
     public static final short VERSION = 11;
     public static final String VENDOR_NAME = "Elbrus Technologies, LLC";
     public static final Charset LATIN1_CHARSET = Charset.forName("latin1");
@@ -35,10 +37,13 @@ public class XServer {
     public final InputDeviceManager inputDeviceManager;
     public final GrabManager grabManager;
     public final CursorLocker cursorLocker;
+    public final RequestStatistics requestStatistics = new RequestStatistics(this);
     private SHMSegmentManager shmSegmentManager;
     private GLRenderer renderer;
     private WinHandler winHandler;
-    private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCKABLES.length];
+    private final ThreadLocal<LockGuard> lockGuard = ThreadLocal.withInitial(LockGuard::new);
+    private boolean checkLockOrder = false;
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
     private boolean isGrabbed = false;
@@ -47,12 +52,12 @@ public class XServer {
     public XServer(ScreenInfo screenInfo) {
         this.screenInfo = screenInfo;
         cursorLocker = new CursorLocker(this);
-        for (Lockable lockable : Lockable.values()) locks.put(lockable, new ReentrantLock());
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantReadWriteLock();
 
         pixmapManager = new PixmapManager();
         drawableManager = new DrawableManager(this);
-        cursorManager = new CursorManager(drawableManager);
         windowManager = new WindowManager(screenInfo, drawableManager);
+        cursorManager = new CursorManager(drawableManager, windowManager);
         selectionManager = new SelectionManager(windowManager);
         inputDeviceManager = new InputDeviceManager(this);
         grabManager = new GrabManager(this);
@@ -100,46 +105,128 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
-    private class SingleXLock implements XLock {
-        private final ReentrantLock lock;
+    private class LockGuard implements XLock {
+        private int[] sharedLockMasks = new int[8];
+        private int[] exclusiveLockMasks = new int[8];
+        private int[] prevHeldSharedMasks = new int[8];
+        private int[] prevHeldExclusiveMasks = new int[8];
+        private int depth = 0;
+        private int heldSharedMask = 0;
+        private int heldExclusiveMask = 0;
+
+        private XLock acquire(int sharedLockMask, int exclusiveLockMask) {
+            sharedLockMask &= ~exclusiveLockMask;
+            int heldMask = heldSharedMask | heldExclusiveMask;
+            int upgradeMask = exclusiveLockMask & heldSharedMask & ~heldExclusiveMask;
+            if (upgradeMask != 0) {
+                throw new IllegalStateException("Cannot upgrade shared lock "+lockMaskToString(upgradeMask)+" to exclusive");
+            }
+
+            int newMask = (sharedLockMask | exclusiveLockMask) & ~heldMask;
+            if (checkLockOrder && newMask != 0 && (heldMask >>> Integer.numberOfTrailingZeros(newMask)) != 0) {
+                throw new IllegalStateException("Lock order violation: acquiring "+lockMaskToString(newMask)+" while holding "+lockMaskToString(heldMask));
+            }
+
+            if (depth == sharedLockMasks.length) {
+                sharedLockMasks = Arrays.copyOf(sharedLockMasks, depth * 2);
+                exclusiveLockMasks = Arrays.copyOf(exclusiveLockMasks, depth * 2);
+                prevHeldSharedMasks = Arrays.copyOf(prevHeldSharedMasks, depth * 2);
+                prevHeldExclusiveMasks = Arrays.copyOf(prevHeldExclusiveMasks, depth * 2);
+            }
+
+            if (requestStatistics.isEnabled()) {
+                long startTime = System.nanoTime();
+                acquireLocks(sharedLockMask, exclusiveLockMask);
+                requestStatistics.addLockWaitTime(System.nanoTime() - startTime);
+            }
+            else acquireLocks(sharedLockMask, exclusiveLockMask);
+
+            sharedLockMasks[depth] = sharedLockMask;
+            exclusiveLockMasks[depth] = exclusiveLockMask;
+            prevHeldSharedMasks[depth] = heldSharedMask;
+            prevHeldExclusiveMasks[depth] = heldExclusiveMask;
+            depth++;
+            heldSharedMask |= sharedLockMask;
+            heldExclusiveMask |= exclusiveLockMask;
+            return this;
+        }
 
-        private SingleXLock(Lockable lockable) {
-            this.lock = locks.get(lockable);
-            lock.lock();
+        private void acquireLocks(int sharedLockMask, int exclusiveLockMask) {
+            for (int mask = sharedLockMask | exclusiveLockMask; mask != 0; mask &= mask - 1) {
+                int i = Integer.numberOfTrailingZeros(mask);
+                if ((exclusiveLockMask & (1 << i)) != 0) {
+                    locks[i].writeLock().lock();
+                }
+                else locks[i].readLock().lock();
+            }
         }
 
         @Override
         public void close() {
-            lock.unlock();
+            depth--;
+            int sharedLockMask = sharedLockMasks[depth];
+            int exclusiveLockMask = exclusiveLockMasks[depth];
+            heldSharedMask = prevHeldSharedMasks[depth];
+            heldExclusiveMask = prevHeldExclusiveMasks[depth];
+            for (int i = LOCKABLES.length - 1; i >= 0; i--) {
+                if ((exclusiveLockMask & (1 << i)) != 0) {
+                    locks[i].writeLock().unlock();
+                }
+                else if ((sharedLockMask & (1 << i)) != 0) locks[i].readLock().unlock();
+            }
         }
     }
 
-    private class MultiXLock implements XLock {
-        private final Lockable[] lockables;
+    public static int lockMask(Lockable lockable) {
+        return 1 << lockable.ordinal();
+    }
 
-        private MultiXLock(Lockable[] lockables) {
-            this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
-        }
+    public static int lockMask(Lockable... lockables) {
+        int lockMask = 0;
+        for (Lockable lockable : lockables) lockMask |= 1 << lockable.ordinal();
+        return lockMask;
+    }
 
-        @Override
-        public void close() {
-            for (int i = lockables.length - 1; i >= 0; i--) {
-                locks.get(lockables[i]).unlock();
-            }
+    public static String lockMaskToString(int lockMask) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < LOCKABLES.length; i++) {
+            if ((lockMask & (1 << i)) == 0) continue;
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(LOCKABLES[i]);
         }
+        return sb.append("]").toString();
+    }
+
+    public XLock lock(int lockMask) {
+        return lockGuard.get().acquire(0, lockMask);
+    }
+
+    public XLock lock(int sharedLockMask, int exclusiveLockMask) {
+        return lockGuard.get().acquire(sharedLockMask, exclusiveLockMask);
+    }
+
+    public XLock lockShared(Lockable... lockables) {
+        return lock(lockMask(lockables), 0);
     }
 
     public XLock lock(Lockable lockable) {
-        return new SingleXLock(lockable);
+        return lock(lockMask(lockable));
     }
 
     public XLock lock(Lockable... lockables) {
-        return new MultiXLock(lockables);
+        return lock(lockMask(lockables));
     }
 
     public XLock lockAll() {
-        return new MultiXLock(Lockable.values());
+        return lock(ALL_LOCKS);
+    }
+
+    public boolean isCheckLockOrder() {
+        return checkLockOrder;
+    }
+
+    public void setCheckLockOrder(boolean checkLockOrder) {
+        this.checkLockOrder = checkLockOrder;
     }
 
     public Extension getExtensionByName(String name) {
@@ -151,13 +238,13 @@ public class XServer {
     }
 
     public void injectPointerMove(int x, int y) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
+        try (XLock lock = lock(lockMask(Lockable.WINDOW_MANAGER), lockMask(Lockable.INPUT_DEVICE))) {
             pointer.setPosition(x, y);
         }
     }
 
     public void injectPointerMoveDelta(int dx, int dy) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
+        try (XLock lock = lock(lockMask(Lockable.WINDOW_MANAGER), lockMask(Lockable.INPUT_DEVICE))) {
             pointer.setPosition(pointer.getX() + dx, pointer.getY() + dy);
         }
     }
@@ -194,7 +281,7 @@ public class XServer {
         extensions.put(BigReqExtension.MAJOR_OPCODE, new BigReqExtension());
         extensions.put(MITSHMExtension.MAJOR_OPCODE, new MITSHMExtension());
         extensions.put(DRI3Extension.MAJOR_OPCODE, new DRI3Extension());
-        extensions.put(PresentExtension.MAJOR_OPCODE, new PresentExtension());
+        extensions.put(PresentExtension.MAJOR_OPCODE, new PresentExtension(this));
         extensions.put(SyncExtension.MAJOR_OPCODE, new SyncExtension());
     }
 
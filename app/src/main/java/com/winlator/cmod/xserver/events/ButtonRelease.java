@@ -4,6 +4,10 @@ import com.winlator.cmod.xserver.Bitmask;
 import com.winlator.cmod.xserver.Window;
 
 public class ButtonRelease extends InputDeviceEvent {
+    public ButtonRelease() {
+        super(5);
+    }
+
     public ButtonRelease(byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(5, detail, root, event, child, rootX, rootY, eventX, eventY, state);
     }
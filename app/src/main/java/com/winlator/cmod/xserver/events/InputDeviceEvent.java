@@ -8,48 +8,65 @@ import com.winlator.cmod.xserver.Window;
 import java.io.IOException;
 
 public class InputDeviceEvent extends Event {
-    private final byte detail;
-    private final int timestamp;
-    private final Window root;
-    private final Window event;
-    private final Window child;
-    private final short eventX;
-    private final short eventY;
-    private final short rootX;
-    private final short rootY;
-    private final Bitmask state;
+    private byte detail;
+    private int timestamp;
+    private int rootId;
+    private int eventId;
+    private int childId;
+    private short eventX;
+    private short eventY;
+    private short rootX;
+    private short rootY;
+    private short state;
+
+    protected InputDeviceEvent(int code) {
+        super(code);
+    }
 
     public InputDeviceEvent(int code, byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(code);
+        set(detail, root.id, event.id, child != null ? child.id : 0, rootX, rootY, eventX, eventY, state.getBits());
+    }
+
+    public InputDeviceEvent set(byte detail, int rootId, int eventId, int childId, short rootX, short rootY, short eventX, short eventY, int state) {
         this.detail = detail;
         this.timestamp = (int)System.currentTimeMillis();
-        this.root = root;
-        this.event = event;
-        this.child = child;
+        this.rootId = rootId;
+        this.eventId = eventId;
+        this.childId = childId;
         this.rootX = rootX;
         this.rootY = rootY;
         this.eventX = eventX;
         this.eventY = eventY;
-        this.state = state;
+        this.state = (short)state;
+        return this;
+    }
+
+    public int getEventWindowId() {
+        return eventId;
     }
 
     @Override
     public void send(short sequenceNumber, XOutputStream outputStream) throws IOException {
         try (XStreamLock lock = outputStream.lock()) {
-            outputStream.writeByte(code);
-            outputStream.writeByte(detail);
-            outputStream.writeShort(sequenceNumber);
-            outputStream.writeInt(timestamp);
-            outputStream.writeInt(root.id);
-            outputStream.writeInt(event.id);
-            outputStream.writeInt(child != null ? child.id : 0);
-            outputStream.writeShort(rootX);
-            outputStream.writeShort(rootY);
-            outputStream.writeShort(eventX);
-            outputStream.writeShort(eventY);
-            outputStream.writeShort((short)state.getBits());
-            outputStream.writeByte((byte)1);
-            outputStream.writeByte((byte)0);
+            write(sequenceNumber, outputStream, detail);
         }
     }
+
+    protected void write(short sequenceNumber, XOutputStream outputStream, byte detail) {
+        outputStream.writeByte(code);
+        outputStream.writeByte(detail);
+        outputStream.writeShort(sequenceNumber);
+        outputStream.writeInt(timestamp);
+        outputStream.writeInt(rootId);
+        outputStream.writeInt(eventId);
+        outputStream.writeInt(childId);
+        outputStream.writeShort(rootX);
+        outputStream.writeShort(rootY);
+        outputStream.writeShort(eventX);
+        outputStream.writeShort(eventY);
+        outputStream.writeShort(state);
+        outputStream.writeByte((byte)1);
+        outputStream.writeByte((byte)0);
+    }
 }
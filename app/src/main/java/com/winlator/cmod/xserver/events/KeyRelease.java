@@ -4,6 +4,10 @@ import com.winlator.cmod.xserver.Bitmask;
 import com.winlator.cmod.xserver.Window;
 
 public class KeyRelease extends InputDeviceEvent {
+    public KeyRelease() {
+        super(3);
+    }
+
     public KeyRelease(byte keycode, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(3, keycode, root, event, child, rootX, rootY, eventX, eventY, state);
     }
@@ -1,10 +1,21 @@
 package com.winlator.cmod.xserver.events;
 
+import com.winlator.cmod.xconnector.XOutputStream;
 import com.winlator.cmod.xserver.Bitmask;
 import com.winlator.cmod.xserver.Window;
 
 public class MotionNotify extends InputDeviceEvent {
+    public static final int LENGTH = 32;
+
+    public MotionNotify() {
+        super(6);
+    }
+
     public MotionNotify(boolean detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(6, (byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
     }
+
+    public void write(short sequenceNumber, XOutputStream outputStream, boolean hint) {
+        write(sequenceNumber, outputStream, (byte)(hint ? 1 : 0));
+    }
 }
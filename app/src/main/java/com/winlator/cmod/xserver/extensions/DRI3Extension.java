@@ -29,6 +29,8 @@ import java.nio.ByteBuffer;
 
 public class DRI3Extension implements Extension {
     public static final byte MAJOR_OPCODE = -102;
+    private static final int OPEN_LOCK_MASK = XServer.lockMask(XServer.Lockable.DRAWABLE_MANAGER);
+    private static final int PIXMAP_FROM_BUFFER_LOCK_MASK = XServer.lockMask(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
     private final Callback<Drawable> onDestroyDrawableListener = (drawable) -> {
         ByteBuffer data = drawable.getData();
         SysVSharedMemory.unmapSHMSegment(data, data.capacity());
@@ -188,17 +190,17 @@ public class DRI3Extension implements Extension {
                 queryVersion(client, inputStream, outputStream);
                 break;
             case ClientOpcodes.OPEN :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+                try (XLock lock = client.xServer.lock(OPEN_LOCK_MASK)) {
                     open(client, inputStream, outputStream);
                 }
                 break;
             case ClientOpcodes.PIXMAP_FROM_BUFFER:
-                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+                try (XLock lock = client.xServer.lock(PIXMAP_FROM_BUFFER_LOCK_MASK)) {
                     pixmapFromBuffer(client, inputStream, outputStream);
                 }
                 break;
             case ClientOpcodes.PIXMAP_FROM_BUFFERS:
-                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+                try (XLock lock = client.xServer.lock(PIXMAP_FROM_BUFFER_LOCK_MASK)) {
                     pixmapFromBuffers(client, inputStream, outputStream);
                 }
                 break;
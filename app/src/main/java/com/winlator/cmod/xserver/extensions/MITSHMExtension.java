@@ -10,23 +10,30 @@ import com.winlator.cmod.xserver.GraphicsContext;
 import com.winlator.cmod.xserver.XClient;
 import com.winlator.cmod.xserver.XLock;
 import com.winlator.cmod.xserver.XServer;
+import com.winlator.cmod.xserver.errors.BadAccess;
 import com.winlator.cmod.xserver.errors.BadDrawable;
 import com.winlator.cmod.xserver.errors.BadGraphicsContext;
 import com.winlator.cmod.xserver.errors.BadImplementation;
 import com.winlator.cmod.xserver.errors.BadSHMSegment;
+import com.winlator.cmod.xserver.errors.BadValue;
 import com.winlator.cmod.xserver.errors.XRequestError;
+import com.winlator.cmod.xserver.requests.DrawRequests;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public class MITSHMExtension implements Extension {
     public static final byte MAJOR_OPCODE = -101;
+    private static final int SEGMENT_LOCK_MASK = XServer.lockMask(XServer.Lockable.SHMSEGMENT_MANAGER);
+    private static final int PUT_IMAGE_LOCK_MASK = XServer.lockMask(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+    private static final int GET_IMAGE_LOCK_MASK = XServer.lockMask(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
 
     private static abstract class ClientOpcodes {
         private static final byte QUERY_VERSION = 0;
         private static final byte ATTACH = 1;
         private static final byte DETACH = 2;
         private static final byte PUT_IMAGE = 3;
+        private static final byte GET_IMAGE = 4;
     }
 
     @Override
@@ -103,7 +110,52 @@ public class MITSHMExtension implements Extension {
             throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
         }
 
-        drawable.drawImage(srcX, srcY, dstX, dstY, srcWidth, srcHeight, depth, data, totalWidth, totalHeight);
+        synchronized (drawable.renderLock) {
+            drawable.drawImage(srcX, srcY, dstX, dstY, srcWidth, srcHeight, depth, data, totalWidth, totalHeight);
+        }
+    }
+
+    private static void getImage(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        int drawableId = inputStream.readInt();
+        short x = inputStream.readShort();
+        short y = inputStream.readShort();
+        short width = inputStream.readShort();
+        short height = inputStream.readShort();
+        inputStream.skip(4);
+        byte format = inputStream.readByte();
+        inputStream.skip(3);
+        int shmseg = inputStream.readInt();
+        int offset = inputStream.readInt();
+
+        if (format != DrawRequests.Format.Z_PIXMAP.ordinal()) throw new BadValue(format);
+
+        Drawable drawable = client.xServer.drawableManager.getDrawable(drawableId);
+        if (drawable == null) throw new BadDrawable(drawableId);
+
+        ByteBuffer data = client.xServer.getSHMSegmentManager().getData(shmseg);
+        if (data == null) throw new BadSHMSegment(shmseg);
+
+        int length = Math.max(width * height * 4, 0);
+        if (offset < 0 || offset > data.capacity() - length) throw new BadAccess();
+
+        if (length > 0) {
+            ByteBuffer dstData = data.duplicate();
+            dstData.limit(offset + length).position(offset);
+            synchronized (drawable.renderLock) {
+                drawable.getImage(x, y, width, height, dstData.slice());
+            }
+        }
+
+        int visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
+        try (XStreamLock lock = outputStream.lock()) {
+            outputStream.writeByte(RESPONSE_CODE_SUCCESS);
+            outputStream.writeByte(drawable.visual.depth);
+            outputStream.writeShort(client.getSequenceNumber());
+            outputStream.writeInt(0);
+            outputStream.writeInt(visualId);
+            outputStream.writeInt(length);
+            outputStream.writePad(16);
+        }
     }
 
     @Override
@@ -114,20 +166,25 @@ public class MITSHMExtension implements Extension {
                 queryVersion(client, inputStream, outputStream);
                 break;
             case ClientOpcodes.ATTACH :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER)) {
+                try (XLock lock = client.xServer.lock(SEGMENT_LOCK_MASK)) {
                     attach(client, inputStream, outputStream);
                 }
                 break;
             case ClientOpcodes.DETACH :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER)) {
+                try (XLock lock = client.xServer.lock(SEGMENT_LOCK_MASK)) {
                     detach(client, inputStream, outputStream);
                 }
                 break;
             case ClientOpcodes.PUT_IMAGE :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+                try (XLock lock = client.xServer.lock(PUT_IMAGE_LOCK_MASK, 0)) {
                     putImage(client, inputStream, outputStream);
                 }
                 break;
+            case ClientOpcodes.GET_IMAGE :
+                try (XLock lock = client.xServer.lock(GET_IMAGE_LOCK_MASK, 0)) {
+                    getImage(client, inputStream, outputStream);
+                }
+                break;
             default:
                 throw new BadImplementation();
         }
@@ -15,6 +15,8 @@ import com.winlator.cmod.xserver.Pixmap;
 import com.winlator.cmod.xserver.Window;
 import com.winlator.cmod.xserver.XClient;
 import com.winlator.cmod.xserver.XLock;
+import com.winlator.cmod.xserver.XResource;
+import com.winlator.cmod.xserver.XResourceManager;
 import com.winlator.cmod.xserver.XServer;
 import com.winlator.cmod.xserver.errors.BadImplementation;
 import com.winlator.cmod.xserver.errors.BadMatch;
@@ -25,13 +27,18 @@ import com.winlator.cmod.xserver.events.PresentCompleteNotify;
 import com.winlator.cmod.xserver.events.PresentIdleNotify;
 
 import java.io.IOException;
+import java.util.List;
 
-public class PresentExtension implements Extension {
+public class PresentExtension implements Extension, XResourceManager.OnResourceLifecycleListener {
     public static final byte MAJOR_OPCODE = -103;
     private static final int FAKE_INTERVAL = 1000000 / 60;
+    private static final int PRESENT_PIXMAP_LOCK_MASK = XServer.lockMask(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+    private static final int SELECT_INPUT_LOCK_MASK = XServer.lockMask(XServer.Lockable.WINDOW_MANAGER);
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
     private final SparseArray<Event> events = new SparseArray<>();
+    private final SparseArray<Flip> flips = new SparseArray<>();
+    private final XServer xServer;
     private SyncExtension syncExtension;
 
     private static abstract class ClientOpcodes {
@@ -47,6 +54,28 @@ public class PresentExtension implements Extension {
         private Bitmask mask;
     }
 
+    private static class Flip {
+        private final Window window;
+        private final Drawable content;
+        private final Pixmap pixmap;
+        private final int serial;
+        private final int idleFence;
+
+        private Flip(Window window, Drawable content, Pixmap pixmap, int serial, int idleFence) {
+            this.window = window;
+            this.content = content;
+            this.pixmap = pixmap;
+            this.serial = serial;
+            this.idleFence = idleFence;
+        }
+    }
+
+    public PresentExtension(XServer xServer) {
+        this.xServer = xServer;
+        xServer.pixmapManager.addOnResourceLifecycleListener(this);
+        xServer.windowManager.addOnResourceLifecycleListener(this);
+    }
+
     @Override
     public String getName() {
         return "Present";
@@ -128,6 +157,31 @@ public class PresentExtension implements Extension {
         long ust = System.nanoTime() / 1000;
         long msc = ust / FAKE_INTERVAL;
 
+        if (canFlip(window, pixmap, xOff, yOff)) {
+            Drawable drawable = pixmap.drawable;
+            if (drawable.getTexture() == null) drawable.setTexture(new Texture());
+            drawable.getTexture().setNeedsUpdate(true);
+
+            Flip oldFlip;
+            synchronized (content.renderLock) {
+                content.setPresentedDrawable(drawable, () -> unflip(windowId, true));
+                synchronized (flips) {
+                    oldFlip = flips.get(windowId);
+                    flips.put(windowId, new Flip(window, content, pixmap, serial, idleFence));
+                }
+            }
+
+            if (oldFlip != null) sendIdleNotify(oldFlip.window, oldFlip.pixmap, oldFlip.serial, oldFlip.idleFence);
+            sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.FLIP, ust, msc);
+
+            Runnable onDrawListener = content.getOnDrawListener();
+            if (onDrawListener != null) onDrawListener.run();
+            return;
+        }
+
+        boolean coversWindow = xOff <= 0 && yOff <= 0 && xOff + pixmap.drawable.width >= content.width && yOff + pixmap.drawable.height >= content.height;
+        unflip(windowId, !coversWindow);
+
         synchronized (content.renderLock) {
             content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
             sendIdleNotify(window, pixmap, serial, idleFence);
@@ -135,6 +189,57 @@ public class PresentExtension implements Extension {
         }
     }
 
+    private boolean canFlip(Window window, Pixmap pixmap, short xOff, short yOff) {
+        if (xServer.getRenderer() == null || xOff != 0 || yOff != 0) return false;
+        Drawable content = window.getContent();
+        if (pixmap.drawable.width != content.width || pixmap.drawable.height != content.height) return false;
+        if (window.getRootX() != 0 || window.getRootY() != 0 || content.width != xServer.screenInfo.width || content.height != xServer.screenInfo.height) return false;
+
+        for (Window child = window, parent = window.getParent(); parent != null; child = parent, parent = parent.getParent()) {
+            if (!child.attributes.isMapped()) return false;
+            List<Window> siblings = parent.getChildren();
+            for (int i = siblings.size()-1; i >= 0 && siblings.get(i) != child; i--) {
+                if (siblings.get(i).attributes.isMapped()) return false;
+            }
+        }
+        return true;
+    }
+
+    private void unflip(int windowId, boolean copyContent) {
+        Flip flip;
+        synchronized (flips) {
+            flip = flips.get(windowId);
+            if (flip == null) return;
+            flips.remove(windowId);
+        }
+
+        synchronized (flip.content.renderLock) {
+            if (flip.content.getPresentedDrawable() == flip.pixmap.drawable) {
+                flip.content.setPresentedDrawable(null, null);
+                if (copyContent && flip.window.getContent() == flip.content) {
+                    flip.content.copyArea((short)0, (short)0, (short)0, (short)0, flip.content.width, flip.content.height, flip.pixmap.drawable);
+                }
+            }
+        }
+        sendIdleNotify(flip.window, flip.pixmap, flip.serial, flip.idleFence);
+    }
+
+    @Override
+    public void onFreeResource(XResource resource) {
+        if (resource instanceof Pixmap) {
+            int windowId = -1;
+            synchronized (flips) {
+                for (int i = 0; i < flips.size() && windowId == -1; i++) {
+                    if (flips.valueAt(i).pixmap == resource) windowId = flips.keyAt(i);
+                }
+            }
+            if (windowId != -1) unflip(windowId, true);
+        }
+        else if (resource instanceof Window) {
+            unflip(resource.id, false);
+        }
+    }
+
     private void selectInput(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         int eventId = inputStream.readInt();
         int windowId = inputStream.readInt();
@@ -181,12 +286,12 @@ public class PresentExtension implements Extension {
                 queryVersion(client, inputStream, outputStream);
                 break;
             case ClientOpcodes.PRESENT_PIXMAP:
-                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER)) {
+                try (XLock lock = client.xServer.lock(PRESENT_PIXMAP_LOCK_MASK)) {
                     presentPixmap(client, inputStream, outputStream);
                 }
                 break;
             case ClientOpcodes.SELECT_INPUT:
-                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                try (XLock lock = client.xServer.lock(SELECT_INPUT_LOCK_MASK)) {
                     selectInput(client, inputStream, outputStream);
                 }
                 break;
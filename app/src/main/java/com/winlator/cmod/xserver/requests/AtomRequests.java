@@ -32,8 +32,8 @@ public abstract class AtomRequests {
     }
     public static void getAtomName(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         int id = inputStream.readInt();
-        if (id < 0) throw new BadAtom(id);
         String name = Atom.getName(id);
+        if (name == null) throw new BadAtom(id);
         short length = (short) name.length();
 
 
@@ -44,23 +44,25 @@ public abstract class DrawRequests {
             throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
         }
 
-        switch (format) {
-            case BITMAP:
-                if (leftPad != 0) throw new UnsupportedOperationException("PutImage.leftPad cannot be != 0.");
-                if (depth == 1) {
-                    drawable.drawImage((short)0, (short)0, dstX, dstY, width, height, (byte)1, data, width, height);
-                }
-                else throw new BadMatch();
-                break;
-            case XY_PIXMAP:
-                if (drawable.visual.depth != depth) throw new BadMatch();
-                break;
-            case Z_PIXMAP:
-                if (leftPad == 0) {
-                    drawable.drawImage((short)0, (short)0, dstX, dstY, width, height, depth, data, width, height);
-                }
-                else throw new BadMatch();
-                break;
+        synchronized (drawable.renderLock) {
+            switch (format) {
+                case BITMAP:
+                    if (leftPad != 0) throw new UnsupportedOperationException("PutImage.leftPad cannot be != 0.");
+                    if (depth == 1) {
+                        drawable.drawImage((short)0, (short)0, dstX, dstY, width, height, (byte)1, data, width, height);
+                    }
+                    else throw new BadMatch();
+                    break;
+                case XY_PIXMAP:
+                    if (drawable.visual.depth != depth) throw new BadMatch();
+                    break;
+                case Z_PIXMAP:
+                    if (leftPad == 0) {
+                        drawable.drawImage((short)0, (short)0, dstX, dstY, width, height, depth, data, width, height);
+                    }
+                    else throw new BadMatch();
+                    break;
+            }
         }
     }
 
@@ -78,18 +80,18 @@ public abstract class DrawRequests {
         Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
         if (drawable == null) throw new BadDrawable(drawableId);
         int visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
-        ByteBuffer data = drawable.getImage(x, y, width, height);
-        int length = data.limit();
-
-        try (XStreamLock lock = outputStream.lock()) {
-            outputStream.writeByte(RESPONSE_CODE_SUCCESS);
-            outputStream.writeByte(drawable.visual.depth);
-            outputStream.writeShort(client.getSequenceNumber());
-            outputStream.writeInt((length + 3) / 4);
-            outputStream.writeInt(visualId);
-            outputStream.writePad(20);
-            outputStream.write(data);
-            if ((-length & 3) > 0) outputStream.writePad(-length & 3);
+        int length = Math.max(width * height * 4, 0);
+
+        synchronized (drawable.renderLock) {
+            try (XStreamLock lock = outputStream.lock()) {
+                outputStream.writeByte(RESPONSE_CODE_SUCCESS);
+                outputStream.writeByte(drawable.visual.depth);
+                outputStream.writeShort(client.getSequenceNumber());
+                outputStream.writeInt(length / 4);
+                outputStream.writeInt(visualId);
+                outputStream.writePad(20);
+                if (length > 0) drawable.getImage(x, y, width, height, outputStream.reserve(length));
+            }
         }
     }
 
@@ -122,7 +124,13 @@ public abstract class DrawRequests {
 
         if (srcDrawable.visual.depth != dstDrawable.visual.depth) throw new BadMatch();
 
-        dstDrawable.copyArea(srcX, srcY, dstX, dstY, width, height, srcDrawable, graphicsContext.getFunction());
+        Drawable firstDrawable = srcDrawable.id < dstDrawable.id ? srcDrawable : dstDrawable;
+        Drawable secondDrawable = firstDrawable == srcDrawable ? dstDrawable : srcDrawable;
+        synchronized (firstDrawable.renderLock) {
+            synchronized (secondDrawable.renderLock) {
+                dstDrawable.copyArea(srcX, srcY, dstX, dstY, width, height, srcDrawable, graphicsContext.getFunction());
+            }
+        }
     }
 
     public static void polyLine(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
@@ -135,17 +143,12 @@ public abstract class DrawRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
-
-        short[] points = new short[length / 2];
-        int i = 0;
-        while (length != 0) {
-            points[i++] = inputStream.readShort();
-            points[i++] = inputStream.readShort();
-            length -= 4;
-        }
+        ByteBuffer points = inputStream.readByteBuffer(length);
 
         if (coordinateMode == CoordinateMode.ORIGIN && graphicsContext.getLineWidth() > 0) {
-            drawable.drawLines(graphicsContext.getForeground(), graphicsContext.getLineWidth(), points);
+            synchronized (drawable.renderLock) {
+                drawable.drawPoly(Drawable.PolyShape.LINE, points, length / 4, graphicsContext.getForeground(), graphicsContext.getLineWidth());
+            }
         }
     }
 
@@ -158,14 +161,10 @@ public abstract class DrawRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
+        ByteBuffer rectangles = inputStream.readByteBuffer(length);
 
-        while (length != 0) {
-            short x = inputStream.readShort();
-            short y = inputStream.readShort();
-            short width = inputStream.readShort();
-            short height = inputStream.readShort();
-            drawable.fillRect(x, y, width, height, graphicsContext.getBackground());
-            length -= 8;
+        synchronized (drawable.renderLock) {
+            drawable.drawPoly(Drawable.PolyShape.FILL_RECTANGLE, rectangles, length / 8, graphicsContext.getBackground(), 0);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+#include <stdio.h>
+#include <stdarg.h>
+
+#include <android/log.h>
+#include <android/bitmap.h>
+
+/* Host implementations of the NDK calls libwinlator makes. Logs go to stderr, and the
+ * JVM stand-in for android.graphics.Bitmap has no pixel storage, so locking always fails. */
+
+static const char PRIORITY_LETTERS[] = "??VDIWEFS";
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+    char letter = prio >= 0 && prio <= ANDROID_LOG_SILENT ? PRIORITY_LETTERS[prio] : '?';
+    fprintf(stderr, "%c/%s: ", letter, tag);
+
+    va_list args;
+    va_start(args, fmt);
+    int length = vfprintf(stderr, fmt, args);
+    va_end(args);
+    return length;
+}
+
+int AndroidBitmap_getInfo(JNIEnv *env, jobject jbitmap, AndroidBitmapInfo *info) {
+    (void)env; (void)jbitmap; (void)info;
+    return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+}
+
+int AndroidBitmap_lockPixels(JNIEnv *env, jobject jbitmap, void **addrPtr) {
+    (void)env; (void)jbitmap;
+    if (addrPtr) *addrPtr = NULL;
+    return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+}
+
+int AndroidBitmap_unlockPixels(JNIEnv *env, jobject jbitmap) {
+    (void)env; (void)jbitmap;
+    return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+}
@@ -0,0 +1,28 @@
+#ifndef WINLATOR_HOST_ANDROID_BITMAP_H
+#define WINLATOR_HOST_ANDROID_BITMAP_H
+
+#include <stdint.h>
+#include <jni.h>
+
+/* Host stand-in for the NDK bitmap API, implemented in android_host.c */
+
+enum {
+    ANDROID_BITMAP_RESULT_SUCCESS = 0,
+    ANDROID_BITMAP_RESULT_BAD_PARAMETER = -1,
+    ANDROID_BITMAP_RESULT_JNI_EXCEPTION = -2,
+    ANDROID_BITMAP_RESULT_ALLOCATION_FAILED = -3
+};
+
+typedef struct {
+    uint32_t width;
+    uint32_t height;
+    uint32_t stride;
+    int32_t format;
+    uint32_t flags;
+} AndroidBitmapInfo;
+
+int AndroidBitmap_getInfo(JNIEnv *env, jobject jbitmap, AndroidBitmapInfo *info);
+int AndroidBitmap_lockPixels(JNIEnv *env, jobject jbitmap, void **addrPtr);
+int AndroidBitmap_unlockPixels(JNIEnv *env, jobject jbitmap);
+
+#endif
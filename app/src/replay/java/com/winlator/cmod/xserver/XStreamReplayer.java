@@ -0,0 +1,177 @@
+package com.winlator.cmod.xserver;
+
+import com.winlator.cmod.sysvshm.SysVSharedMemory;
+import com.winlator.cmod.xconnector.Client;
+import com.winlator.cmod.xconnector.XInputStream;
+import com.winlator.cmod.xconnector.XOutputStream;
+import com.winlator.cmod.xconnector.XStreamRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+
+public class XStreamReplayer {
+    private static final int INITIAL_INPUT_BUFFER_CAPACITY = 262144;
+    private static final int INITIAL_OUTPUT_BUFFER_CAPACITY = 4096;
+    private final XServer xServer;
+    private final XClientConnectionHandler connectionHandler;
+    private final XClientRequestHandler requestHandler = new XClientRequestHandler();
+    private final HashMap<Integer, Client> clients = new HashMap<>();
+    private boolean realtime = false;
+    private int requestCount = 0;
+    private long requestBytes = 0;
+
+    public XStreamReplayer(XServer xServer) {
+        this.xServer = xServer;
+        connectionHandler = new XClientConnectionHandler(xServer);
+    }
+
+    public boolean isRealtime() {
+        return realtime;
+    }
+
+    public void setRealtime(boolean realtime) {
+        this.realtime = realtime;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public void replay(File file) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (inputStream.readInt() != XStreamRecorder.MAGIC) throw new IOException("Not an X stream capture: "+file);
+            int version = inputStream.readInt();
+            if (version != XStreamRecorder.VERSION) throw new IOException("Unsupported X stream capture version "+version+".");
+
+            long startTime = System.nanoTime();
+            byte[] data = new byte[4096];
+            int type;
+            while ((type = inputStream.read()) != -1) {
+                int clientId = inputStream.readInt();
+                long timestamp = inputStream.readLong();
+                int length = inputStream.readInt();
+
+                if (length > data.length) data = new byte[Integer.highestOneBit(length) << 1];
+                inputStream.readFully(data, 0, length);
+
+                if (realtime) waitUntil(startTime + timestamp);
+
+                switch (type) {
+                    case XStreamRecorder.RECORD_CONNECT:
+                        connect(clientId);
+                        break;
+                    case XStreamRecorder.RECORD_DATA:
+                        handleData(clientId, ByteBuffer.wrap(data, 0, length));
+                        break;
+                    case XStreamRecorder.RECORD_DISCONNECT:
+                        disconnect(clientId);
+                        break;
+                }
+            }
+        }
+        finally {
+            for (Client client : clients.values()) closeClient(client);
+            clients.clear();
+        }
+    }
+
+    private void connect(int clientId) {
+        Client client = new Client(new XInputStream(INITIAL_INPUT_BUFFER_CAPACITY), new XOutputStream(INITIAL_OUTPUT_BUFFER_CAPACITY));
+        connectionHandler.handleNewConnection(client);
+        clients.put(clientId, client);
+    }
+
+    private void handleData(int clientId, ByteBuffer data) throws IOException {
+        Client client = clients.get(clientId);
+        if (client == null) return;
+
+        XInputStream inputStream = client.getInputStream();
+        requestBytes += inputStream.readMoreData(data);
+
+        int activePosition = 0;
+        while (requestHandler.handleRequest(client)) {
+            activePosition = inputStream.getActivePosition();
+            requestCount++;
+        }
+        inputStream.setActivePosition(activePosition);
+    }
+
+    private void disconnect(int clientId) {
+        Client client = clients.remove(clientId);
+        if (client != null) closeClient(client);
+    }
+
+    private void closeClient(Client client) {
+        connectionHandler.handleConnectionShutdown(client);
+        client.closeIOStreams();
+    }
+
+    private static void waitUntil(long time) {
+        long delay;
+        while ((delay = time - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        /* XServer starts a non-daemon timer thread, so main has to exit explicitly */
+        int status;
+        try {
+            status = run(args);
+        }
+        catch (Throwable e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private static int run(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: XStreamReplayer <capture file> [WIDTHxHEIGHT] [--realtime] [--stats]");
+            return 1;
+        }
+
+        ScreenInfo screenInfo = new ScreenInfo(1280, 720);
+        boolean realtime = false;
+        boolean stats = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--realtime")) {
+                realtime = true;
+            }
+            else if (args[i].equals("--stats")) {
+                stats = true;
+            }
+            else screenInfo = new ScreenInfo(args[i]);
+        }
+
+        XServer xServer = new XServer(screenInfo);
+        xServer.setSHMSegmentManager(new SHMSegmentManager(new SysVSharedMemory()));
+        xServer.requestStatistics.setEnabled(stats);
+        XStreamReplayer replayer = new XStreamReplayer(xServer);
+        replayer.setRealtime(realtime);
+
+        long startTime = System.nanoTime();
+        replayer.replay(new File(args[0]));
+        long elapsedTime = System.nanoTime() - startTime;
+
+        System.out.println(String.format(Locale.ENGLISH, "Replayed %d requests (%d bytes) in %.3f ms", replayer.getRequestCount(), replayer.getRequestBytes(), elapsedTime / 1000000.0));
+        if (stats) System.out.print(xServer.requestStatistics);
+        return 0;
+    }
+}
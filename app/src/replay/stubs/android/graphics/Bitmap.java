@@ -0,0 +1,31 @@
+package android.graphics;
+
+/* JVM stand-in holding only the bitmap size, the host libwinlator has no pixels to lock for it */
+public final class Bitmap {
+    public enum Config {ALPHA_8, RGB_565, ARGB_4444, ARGB_8888}
+    private final int width;
+    private final int height;
+    private final Config config;
+
+    private Bitmap(int width, int height, Config config) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+}
@@ -0,0 +1,6 @@
+package android.opengl;
+
+/* JVM stand-in, see GLES20 */
+public class GLES11Ext {
+    public static final int GL_BGRA = 0x80E1;
+}
@@ -0,0 +1,63 @@
+package android.opengl;
+
+import java.nio.Buffer;
+
+/* JVM stand-in, the constants match the GL headers and every call fails since the replayer has no renderer */
+public class GLES20 {
+    public static final int GL_UNPACK_ALIGNMENT = 0x0CF5;
+    public static final int GL_TEXTURE_2D = 0x0DE1;
+    public static final int GL_UNSIGNED_BYTE = 0x1401;
+    public static final int GL_RGBA = 0x1908;
+    public static final int GL_LINEAR = 0x2601;
+    public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+    public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+    public static final int GL_TEXTURE_WRAP_S = 0x2802;
+    public static final int GL_TEXTURE_WRAP_T = 0x2803;
+    public static final int GL_CLAMP_TO_EDGE = 0x812F;
+    public static final int GL_TEXTURE0 = 0x84C0;
+    public static final int GL_FRAMEBUFFER = 0x8D40;
+
+    protected static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("OpenGL ES is not available on the JVM.");
+    }
+
+    public static void glActiveTexture(int texture) {
+        throw unsupported();
+    }
+
+    public static void glBindFramebuffer(int target, int framebuffer) {
+        throw unsupported();
+    }
+
+    public static void glBindTexture(int target, int texture) {
+        throw unsupported();
+    }
+
+    public static void glCopyTexImage2D(int target, int level, int internalformat, int x, int y, int width, int height, int border) {
+        throw unsupported();
+    }
+
+    public static void glDeleteTextures(int n, int[] textures, int offset) {
+        throw unsupported();
+    }
+
+    public static void glGenTextures(int n, int[] textures, int offset) {
+        throw unsupported();
+    }
+
+    public static void glPixelStorei(int pname, int param) {
+        throw unsupported();
+    }
+
+    public static void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        throw unsupported();
+    }
+
+    public static void glTexParameteri(int target, int pname, int param) {
+        throw unsupported();
+    }
+
+    public static void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+        throw unsupported();
+    }
+}
@@ -0,0 +1,6 @@
+package android.opengl;
+
+/* JVM stand-in, see GLES20 */
+public class GLES30 extends GLES20 {
+    public static final int GL_UNPACK_ROW_LENGTH = 0x0CF2;
+}
@@ -0,0 +1,99 @@
+package android.util;
+
+import java.util.Arrays;
+
+/* JVM stand-in for the framework class, keyed by long like SparseArray is by int */
+public class LongSparseArray<E> {
+    private long[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public LongSparseArray() {
+        this(10);
+    }
+
+    public LongSparseArray(int initialCapacity) {
+        keys = new long[Math.max(initialCapacity, 1)];
+        values = new Object[keys.length];
+    }
+
+    public E get(long key) {
+        return get(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long key, E valueIfKeyNotFound) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? (E)values[index] : valueIfKeyNotFound;
+    }
+
+    public void put(long key, E value) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        index = ~index;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    public void append(long key, E value) {
+        put(key, value);
+    }
+
+    public void delete(long key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) removeAt(index);
+    }
+
+    public void remove(long key) {
+        delete(key);
+    }
+
+    public void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        values[--size] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long keyAt(int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E)values[index];
+    }
+
+    public void setValueAt(int index, E value) {
+        values[index] = value;
+    }
+
+    public int indexOfKey(long key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? index : -1;
+    }
+
+    public int indexOfValue(E value) {
+        for (int i = 0; i < size; i++) if (values[i] == value) return i;
+        return -1;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+}
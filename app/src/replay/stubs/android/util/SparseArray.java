@@ -0,0 +1,99 @@
+package android.util;
+
+import java.util.Arrays;
+
+/* JVM stand-in with the same sorted key layout as the framework class, so keyAt/valueAt iteration stays linear */
+public class SparseArray<E> {
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public SparseArray() {
+        this(10);
+    }
+
+    public SparseArray(int initialCapacity) {
+        keys = new int[Math.max(initialCapacity, 1)];
+        values = new Object[keys.length];
+    }
+
+    public E get(int key) {
+        return get(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int key, E valueIfKeyNotFound) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? (E)values[index] : valueIfKeyNotFound;
+    }
+
+    public void put(int key, E value) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        index = ~index;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    public void append(int key, E value) {
+        put(key, value);
+    }
+
+    public void delete(int key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) removeAt(index);
+    }
+
+    public void remove(int key) {
+        delete(key);
+    }
+
+    public void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        values[--size] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E)values[index];
+    }
+
+    public void setValueAt(int index, E value) {
+        values[index] = value;
+    }
+
+    public int indexOfKey(int key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? index : -1;
+    }
+
+    public int indexOfValue(E value) {
+        for (int i = 0; i < size; i++) if (values[i] == value) return i;
+        return -1;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,42 @@
+package android.util;
+
+/* JVM stand-in for the framework class, boxed on top of SparseArray */
+public class SparseBooleanArray {
+    private final SparseArray<Boolean> values = new SparseArray<>();
+
+    public boolean get(int key) {
+        return get(key, false);
+    }
+
+    public boolean get(int key, boolean valueIfKeyNotFound) {
+        return values.get(key, valueIfKeyNotFound);
+    }
+
+    public void put(int key, boolean value) {
+        values.put(key, value);
+    }
+
+    public void delete(int key) {
+        values.delete(key);
+    }
+
+    public int indexOfKey(int key) {
+        return values.indexOfKey(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public int keyAt(int index) {
+        return values.keyAt(index);
+    }
+
+    public boolean valueAt(int index) {
+        return values.valueAt(index);
+    }
+
+    public void clear() {
+        values.clear();
+    }
+}
@@ -0,0 +1,6 @@
+package android.view;
+
+/* JVM stand-in, replayed key events carry no input device */
+public final class InputDevice {
+    private InputDevice() {}
+}
@@ -0,0 +1,116 @@
+package androidx.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/* JVM stand-in keeping entries in parallel arrays like the library class, looked up linearly since the maps it backs stay small */
+public class ArrayMap<K, V> extends AbstractMap<K, V> {
+    private final ArrayList<K> keys = new ArrayList<>();
+    private final ArrayList<V> values = new ArrayList<>();
+
+    public K keyAt(int index) {
+        return keys.get(index);
+    }
+
+    public V valueAt(int index) {
+        return values.get(index);
+    }
+
+    public V setValueAt(int index, V value) {
+        return values.set(index, value);
+    }
+
+    public V removeAt(int index) {
+        keys.remove(index);
+        return values.remove(index);
+    }
+
+    public int indexOfKey(Object key) {
+        return keys.indexOf(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOfKey(key) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int index = indexOfKey(key);
+        return index >= 0 ? values.get(index) : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int index = indexOfKey(key);
+        if (index >= 0) return values.set(index, value);
+        keys.add(key);
+        values.add(value);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int index = indexOfKey(key);
+        return index >= 0 ? removeAt(index) : null;
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<Entry<K, V>>() {
+                    private int index = 0;
+                    private boolean removable = false;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.size();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        removable = true;
+                        final int entryIndex = index++;
+                        return new SimpleEntry<K, V>(keys.get(entryIndex), values.get(entryIndex)) {
+                            @Override
+                            public V setValue(V value) {
+                                super.setValue(value);
+                                return values.set(entryIndex, value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!removable) throw new IllegalStateException();
+                        removeAt(--index);
+                        removable = false;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package com.winlator.cmod;
+
+/* JVM stand-in, there is never an XR session on the host */
+public class XrActivity {
+    private XrActivity() {}
+
+    public static boolean isEnabled(Object context) {
+        return false;
+    }
+
+    public static XrActivity getInstance() {
+        return null;
+    }
+
+    public void bindFramebuffer() {}
+}
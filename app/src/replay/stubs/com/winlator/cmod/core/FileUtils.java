@@ -0,0 +1,27 @@
+package com.winlator.cmod.core;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/* JVM stand-in with the path helpers the X connector uses, same behavior as the app class */
+public abstract class FileUtils {
+    public static boolean delete(File targetFile) {
+        if (targetFile == null) return false;
+        if (targetFile.isDirectory() && !Files.isSymbolicLink(targetFile.toPath())) {
+            File[] files = targetFile.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!delete(file)) return false;
+                }
+            }
+        }
+        return targetFile.delete();
+    }
+
+    public static String getDirname(String path) {
+        if (path == null) return "";
+        path = StringUtils.removeEndSlash(path);
+        int index = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(0, index);
+    }
+}
@@ -0,0 +1,21 @@
+package com.winlator.cmod.core;
+
+import java.nio.charset.Charset;
+
+/* JVM stand-in with the string helpers the X server uses, same behavior as the app class */
+public abstract class StringUtils {
+    public static String removeEndSlash(String value) {
+        while (value.endsWith("/") || value.endsWith("\\")) value = value.substring(0, value.length()-1);
+        return value;
+    }
+
+    public static String fromANSIString(byte[] bytes) {
+        return fromANSIString(bytes, null);
+    }
+
+    public static String fromANSIString(byte[] bytes, Charset charset) {
+        String value = charset != null ? new String(bytes, charset) : new String(bytes);
+        int indexOfNull = value.indexOf('\0');
+        return indexOfNull != -1 ? value.substring(0, indexOfNull) : value;
+    }
+}
@@ -0,0 +1,10 @@
+package com.winlator.cmod.inputcontrols;
+
+import android.view.InputDevice;
+
+/* JVM stand-in, replayed key events never come from a game controller */
+public class ExternalController {
+    public static boolean isGameController(InputDevice device) {
+        return false;
+    }
+}
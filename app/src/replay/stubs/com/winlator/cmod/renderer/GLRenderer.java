@@ -0,0 +1,12 @@
+package com.winlator.cmod.renderer;
+
+import com.winlator.cmod.widget.XServerView;
+
+/* JVM stand-in, the replayer runs the X server without a renderer so this is only linked against */
+public class GLRenderer {
+    public final XServerView xServerView;
+
+    public GLRenderer(XServerView xServerView) {
+        this.xServerView = xServerView;
+    }
+}
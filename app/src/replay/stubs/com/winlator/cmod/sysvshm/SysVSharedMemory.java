@@ -0,0 +1,20 @@
+package com.winlator.cmod.sysvshm;
+
+import java.nio.ByteBuffer;
+
+/* JVM stand-in, shared memory segments and fds stay in the captured process so none can be attached */
+public class SysVSharedMemory {
+    public ByteBuffer attach(int shmid) {
+        return null;
+    }
+
+    public void detach(ByteBuffer data) {}
+
+    public static ByteBuffer mapSHMSegment(int fd, long size, int offset, boolean readonly) {
+        throw new UnsupportedOperationException("Shared memory fds are not captured.");
+    }
+
+    public static void unmapSHMSegment(ByteBuffer data, long size) {
+        throw new UnsupportedOperationException("Shared memory fds are not captured.");
+    }
+}
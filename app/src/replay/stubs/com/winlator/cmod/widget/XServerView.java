@@ -0,0 +1,10 @@
+package com.winlator.cmod.widget;
+
+/* JVM stand-in without a GL thread, queued events run on the caller */
+public class XServerView {
+    public void queueEvent(Runnable runnable) {
+        runnable.run();
+    }
+
+    public void requestRender() {}
+}
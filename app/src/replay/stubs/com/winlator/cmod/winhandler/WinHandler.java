@@ -0,0 +1,10 @@
+package com.winlator.cmod.winhandler;
+
+/* JVM stand-in, there is no Wine side to forward to while replaying */
+public class WinHandler {
+    public void mouseEvent(int flags, int dx, int dy, int wheelDelta) {}
+
+    public void bringToFront(String processName) {}
+
+    public void bringToFront(String processName, long handle) {}
+}
@@ -0,0 +1,193 @@
+#include <stdio.h>
+#include <stdint.h>
+#include <string.h>
+
+#include "drawable_kernels.h"
+
+/* Golden test for drawable_kernels.c, every kernel is compared pixel for pixel with
+ * the per-pixel loops drawable.c used before the kernels were introduced. Widths
+ * cover empty rows, odd widths and every vector tail length, and rows start at
+ * unaligned offsets. */
+
+#define MAX_WIDTH 67
+#define MAX_OFFSET 3
+#define ROW_CAPACITY (MAX_WIDTH + MAX_OFFSET)
+#define BITMAP_CAPACITY ((ROW_CAPACITY + 7) / 8 + 1)
+
+static uint32_t randomState = 0x12345678;
+static int failures = 0;
+
+static uint32_t nextRandom() {
+    randomState ^= randomState << 13;
+    randomState ^= randomState >> 17;
+    randomState ^= randomState << 5;
+    return randomState;
+}
+
+static void fillRandom(uint32_t *data, int length) {
+    for (int i = 0; i < length; i++) data[i] = nextRandom();
+}
+
+static void checkRow(const char *kernel, int param, int width, int offset, const uint32_t *expected, const uint32_t *actual) {
+    for (int x = 0; x < ROW_CAPACITY; x++) {
+        if (expected[x] != actual[x]) {
+            printf("%s(%d) width=%d offset=%d: pixel %d expected %08x got %08x\n", kernel, param, width, offset, x, expected[x], actual[x]);
+            failures++;
+            return;
+        }
+    }
+}
+
+static int setPixelOp(int srcColor, int dstColor, enum GCFunction gcFunction) {
+    switch (gcFunction) {
+        case GCF_CLEAR:
+            return BLACK;
+        case GCF_AND:
+            return srcColor & dstColor;
+        case GCF_AND_REVERSE:
+            return srcColor & ~dstColor;
+        case GCF_COPY:
+            return srcColor;
+        case GCF_AND_INVERTED:
+            return ~srcColor & dstColor;
+        case GCF_XOR:
+            return srcColor ^ dstColor;
+        case GCF_OR:
+            return srcColor | dstColor;
+        case GCF_NOR:
+            return ~srcColor & ~dstColor;
+        case GCF_EQUIV:
+            return ~srcColor ^ dstColor;
+        case GCF_INVERT:
+            return ~dstColor;
+        case GCF_OR_REVERSE:
+            return srcColor | ~dstColor;
+        case GCF_COPY_INVERTED:
+            return ~srcColor;
+        case GCF_OR_INVERTED:
+            return ~srcColor | dstColor;
+        case GCF_NAND:
+            return ~srcColor | ~dstColor;
+        case GCF_SET:
+            return WHITE;
+        case GCF_NO_OP:
+        default:
+            return dstColor;
+    }
+}
+
+static void referenceRasterOp(uint32_t *dst, const uint32_t *src, int width, enum GCFunction gcFunction) {
+    uint8_t *dstDataAddr = (uint8_t*)dst;
+    const uint8_t *srcDataAddr = (const uint8_t*)src;
+    for (int x = 0; x < width; x++) {
+        int i = x * 4;
+        int srcColor = (srcDataAddr[i] << 16) | (srcDataAddr[i+1] << 8) | srcDataAddr[i+2];
+        int dstColor = (dstDataAddr[i] << 16) | (dstDataAddr[i+1] << 8) | dstDataAddr[i+2];
+
+        dstColor = setPixelOp(srcColor, dstColor, gcFunction);
+
+        dstDataAddr[i] = (dstColor >> 16) & 0xff;
+        dstDataAddr[i+1] = (dstColor >> 8) & 0xff;
+        dstDataAddr[i+2] = dstColor & 0xff;
+    }
+}
+
+static void referenceFillSpan(uint32_t *dst, int color, int width) {
+    uint8_t rgba[4];
+    rgba[2] = (color >> 16) & 255;
+    rgba[1] = (color >> 8) & 255;
+    rgba[0] = color & 255;
+    rgba[3] = 255;
+    for (int x = 0; x < width; x++) memcpy(dst + x, rgba, 4);
+}
+
+static int8_t getBit(const uint8_t *line, int x) {
+    uint8_t mask = (1 << (x & 7));
+    line += (x >> 3);
+    return (*line & mask) ? 1 : 0;
+}
+
+static void referenceExpandBitmapRow(uint32_t *dst, const uint8_t *src, int width) {
+    for (int x = 0; x < width; x++) *dst++ = getBit(src, x) ? WHITE : BLACK;
+}
+
+static void referenceMaskedBlit(uint32_t *dst, const uint32_t *src, const uint32_t *mask, int foreColor, int backColor, int length) {
+    for (int i = 0; i < length; i++) {
+        dst[i] = mask[i] == WHITE ? (src[i] == WHITE ? foreColor : backColor) | 0xff000000 : 0x00000000;
+    }
+}
+
+static void testRasterOps(int width, int offset) {
+    uint32_t src[ROW_CAPACITY], expected[ROW_CAPACITY], actual[ROW_CAPACITY];
+    for (int gcFunction = GCF_CLEAR; gcFunction <= GCF_SET; gcFunction++) {
+        fillRandom(src, ROW_CAPACITY);
+        fillRandom(expected, ROW_CAPACITY);
+        memcpy(actual, expected, sizeof(actual));
+
+        referenceRasterOp(expected + offset, src + offset, width, gcFunction);
+        getRasterOpRow(gcFunction)(actual + offset, src + offset, width);
+        checkRow("rasterOp", gcFunction, width, offset, expected, actual);
+    }
+}
+
+static void testFillSpan(int width, int offset) {
+    uint32_t expected[ROW_CAPACITY], actual[ROW_CAPACITY];
+    int color = nextRandom();
+    fillRandom(expected, ROW_CAPACITY);
+    memcpy(actual, expected, sizeof(actual));
+
+    referenceFillSpan(expected + offset, color, width);
+    fillSpan(actual + offset, (color & 0xffffff) | 0xff000000, width);
+    checkRow("fillSpan", 0, width, offset, expected, actual);
+}
+
+static void testExpandBitmapRow(int width, int offset) {
+    uint8_t bits[BITMAP_CAPACITY];
+    uint32_t expected[ROW_CAPACITY], actual[ROW_CAPACITY];
+    for (int i = 0; i < BITMAP_CAPACITY; i++) bits[i] = nextRandom();
+    fillRandom(expected, ROW_CAPACITY);
+    memcpy(actual, expected, sizeof(actual));
+
+    referenceExpandBitmapRow(expected + offset, bits, width);
+    expandBitmapRow(actual + offset, bits, width);
+    checkRow("expandBitmapRow", 0, width, offset, expected, actual);
+}
+
+static void testMaskedBlit(int width, int offset) {
+    uint32_t src[ROW_CAPACITY], mask[ROW_CAPACITY], expected[ROW_CAPACITY], actual[ROW_CAPACITY];
+    for (int i = 0; i < ROW_CAPACITY; i++) {
+        src[i] = (nextRandom() & 1) ? WHITE : nextRandom();
+        mask[i] = (nextRandom() & 1) ? WHITE : nextRandom();
+    }
+    int foreColor = nextRandom() & 0xffffff;
+    int backColor = nextRandom() & 0xffffff;
+    fillRandom(expected, ROW_CAPACITY);
+    memcpy(actual, expected, sizeof(actual));
+
+    referenceMaskedBlit(expected + offset, src + offset, mask + offset, foreColor, backColor, width);
+    maskedBlit(actual + offset, src + offset, mask + offset, foreColor, backColor, width);
+    checkRow("maskedBlit", 0, width, offset, expected, actual);
+}
+
+int main() {
+    for (int width = 0; width <= MAX_WIDTH; width++) {
+        for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+            testRasterOps(width, offset);
+            testFillSpan(width, offset);
+            testExpandBitmapRow(width, offset);
+            testMaskedBlit(width, offset);
+        }
+    }
+
+#ifdef DRAWABLE_KERNELS_SCALAR
+    const char *build = "scalar";
+#else
+    const char *build = "vector";
+#endif
+    if (failures > 0) {
+        printf("drawable_kernels (%s): %d failures\n", build, failures);
+        return 1;
+    }
+    printf("drawable_kernels (%s): ok\n", build);
+    return 0;
+}